@@ -0,0 +1,94 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.persistence.StateAdapter;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.State;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The inputs of the benchmarks: planning states on the rc_3m5t map for the goals of the midasSmall and midasLarge
+ * scenarios, read the way SEPIA reads the map for a game.
+ */
+public class BenchStates {
+
+	/**
+	 * The map the benchmarks plan on, relative to the bench directory unless -Dsepia.map says otherwise.
+	 */
+	public static final String MAP = System.getProperty("sepia.map", "../data/rc_3m5t.xml");
+
+	private static final int PLAYERNUM = 0;
+
+	/**
+	 * Loads the map into a fresh SEPIA state view.
+	 * @return
+	 */
+	public static State.StateView loadMap() {
+
+		try {
+			XmlState xml = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller().unmarshal(new File(MAP));
+
+			return new StateAdapter().fromXml(xml).getView(PLAYERNUM);
+		} catch (JAXBException e) {
+			throw new IllegalStateException("Could not load the map " + MAP, e);
+		}
+	}
+
+	/**
+	 * Creates the start state for a goal setting: small asks for 200 gold and 200 wood, large for 1000 of each,
+	 * as midasSmall and midasLarge do.
+	 * @param view
+	 * @param goal "small" or "large"
+	 * @return
+	 */
+	public static GameState startState(State.StateView view, String goal) {
+
+		if (goal.equals("small")) {
+			return new GameState(view, PLAYERNUM, 200, 200, false);
+		}
+		if (goal.equals("large")) {
+			return new GameState(view, PLAYERNUM, 1000, 1000, false);
+		}
+		throw new IllegalArgumentException("Unknown goal setting " + goal + ", expected small or large");
+	}
+
+	/**
+	 * Returns the states along an optimal plan for a goal setting, from the start state to the last state before the
+	 * goal, with their parents set. These are the states a search actually expands, from empty to nearly done.
+	 * @param goal "small" or "large"
+	 * @return
+	 */
+	public static List<GameState> planStates(String goal) {
+
+		GameState goalState = search(startState(loadMap(), goal));
+		List<GameState> path = new ArrayList<GameState>();
+
+		for (GameState state = goalState.astarParent; state != null; state = state.astarParent) {
+			path.add(state);
+		}
+		Collections.reverse(path);
+
+		return path;
+	}
+
+	/**
+	 * Plans with plain A* and the plan cache off, as PlannerAgent does by default.
+	 * @param startState
+	 * @return The goal state
+	 */
+	public static GameState search(GameState startState) {
+
+		PlannerOptions options = new PlannerOptions(new String[] { "planCache=false" }, 0);
+		GameState goalState = PlannerAgent.createSearch(options).search(startState);
+
+		if (goalState == null) {
+			throw new IllegalStateException("No plan found for the benchmark inputs");
+		}
+		return goalState;
+	}
+}
@@ -0,0 +1,108 @@
+package edu.cwru.sepia.agent.planner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the GameState operations the search spends its time in. Each operation runs once on every state of
+ * a sample: the states along the optimal plan for the goal setting and all their children, so the numbers are per
+ * pass over the sample, whose size is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+
+	@Param({ "small", "large" })
+	public String goal;
+
+	// The plan's states, which are expanded in generateChildren.
+	private List<GameState> expanded;
+	// Their children, and an equal but separate copy of each.
+	private List<GameState> states;
+	private List<GameState> copies;
+	// Every peasant's position in the sampled states, with its state.
+	private List<Position> positions;
+	private List<GameState> positionStates;
+
+	@Setup
+	public void setUp() {
+
+		expanded = BenchStates.planStates(goal);
+		states = new ArrayList<GameState>();
+		copies = new ArrayList<GameState>();
+		positions = new ArrayList<Position>();
+		positionStates = new ArrayList<GameState>();
+
+		for (GameState state : expanded) {
+			states.addAll(state.generateChildren());
+			copies.addAll(state.generateChildren());
+		}
+		for (GameState state : states) {
+
+			for (Peasant peasant : state.getPeasants().values()) {
+				positions.add(peasant.getPosition());
+				positionStates.add(state);
+			}
+		}
+		System.out.println(expanded.size() + " expanded states, " + states.size() + " children, " + positions.size() + " peasant positions");
+	}
+
+	@Benchmark
+	public void generateChildren(Blackhole blackhole) {
+
+		for (GameState state : expanded) {
+			blackhole.consume(state.generateChildren());
+		}
+	}
+
+	@Benchmark
+	public void heuristic(Blackhole blackhole) {
+
+		for (GameState state : states) {
+			blackhole.consume(state.heuristic());
+		}
+	}
+
+	/**
+	 * Hashes every state and compares it with its equal copy and with the next state, which mostly differs, as
+	 * duplicate detection does.
+	 */
+	@Benchmark
+	public void equalsAndHashCode(Blackhole blackhole) {
+
+		int n = states.size();
+
+		for (int i = 0; i < n; i++) {
+			GameState state = states.get(i);
+			blackhole.consume(state.hashCode());
+			blackhole.consume(state.equals(copies.get(i)));
+			blackhole.consume(state.equals(states.get((i + 1) % n)));
+		}
+	}
+
+	@Benchmark
+	public void validAdjacentPositions(Blackhole blackhole) {
+
+		for (int i = 0; i < positions.size(); i++) {
+			blackhole.consume(positions.get(i).getValidAdjacentPositions(positionStates.get(i)));
+		}
+	}
+}
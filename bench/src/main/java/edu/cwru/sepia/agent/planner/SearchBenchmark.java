@@ -0,0 +1,64 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole planning run, as PlannerAgent's AstarSearch does it: the start state is read from the map's state view,
+ * searched with plain A* and the plan rebuilt from the goal state. The state view is loaded once, so parsing the
+ * map isn't measured. The searches' progress output is thrown away while the benchmark runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+	@Param({ "small", "large" })
+	public String goal;
+
+	private edu.cwru.sepia.environment.model.state.State.StateView view;
+	private PrintStream out;
+
+	@Setup
+	public void setUp() {
+
+		view = BenchStates.loadMap();
+		out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(int b) {}
+		}));
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public Stack<StripsAction> astarSearch() {
+
+		return PlannerAgent.reconstructActionPlan(BenchStates.search(BenchStates.startState(view, goal)));
+	}
+}
@@ -0,0 +1,339 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The planner's search over GameStates, in the three modes PlannerOptions offers.
+ *
+ * Plain A* and weighted A* are a single pass ordered by f = g + w * h, with w = 1 for plain A*. A state reached
+ * again more cheaply after it was expanded is put back on the open list.
+ *
+ * The anytime mode is ARA* (Likhachev, Gordon and Thrun). It runs weighted A* passes with a falling weight. A state
+ * that gets cheaper after it was expanded in a pass is not expanded again in that pass. It waits in an inconsistent
+ * list instead, and the next pass starts from the open and inconsistent states under the new weight, keeping every
+ * g value found so far. Each pass stops as soon as no open state could lead to a cheaper goal under its weight.
+ * The time budget only limits improving a plan: the search always runs until it has a first plan.
+ *
+ * Every improved plan is logged with its cost and the time since the search started, and each finished pass with
+ * the bound it proves on how far the plan can be from optimal.
+ *
+ * In a makespan search, generated states that a known state dominates are dropped before their heuristic is
+ * computed (see DominanceIndex), unless the options turn dominance pruning off.
+ *
+ * As a member of a portfolio (see PortfolioSearch) the search also stops when its cancellation token is cancelled,
+ * and treats the portfolio's incumbent as its own: it offers its goals to it, prunes the states that can't beat it,
+ * and ends a pass once no open state could lead to a goal cheaper than it under the pass's weight.
+ */
+public class AnytimeSearch implements PlanSearch {
+
+	private final PlannerOptions options;
+	private final HeuristicChecker checker;
+	private final OpenList openSet;
+	// The cheapest instance found so far of every generated state.
+	private final Map<GameState, GameState> seen;
+	private final Set<GameState> closedSet;
+	private final Map<GameState, GameState> inconsistent;
+	private DominanceIndex dominance;
+	private final SearchMetrics metrics;
+	private GameState incumbent;
+	private CancellationToken token;
+	private SharedIncumbent shared;
+	private boolean cancelled;
+	private int solutionCount;
+	private long startTime;
+	private double lastPrintedProgress;
+
+	/**
+	 * Creates a search with the given options.
+	 * @param options
+	 */
+	public AnytimeSearch(PlannerOptions options) {
+
+		this.options = options;
+		this.checker = options.isCheckHeuristic() ? new HeuristicChecker() : null;
+		this.openSet = new OpenList();
+		this.seen = new HashMap<GameState, GameState>();
+		this.closedSet = new HashSet<GameState>();
+		this.inconsistent = new HashMap<GameState, GameState>();
+		this.metrics = new SearchMetrics(options.getSearchSettings());
+	}
+
+	/**
+	 * Makes the search a member of a portfolio.
+	 * @param token The token that stops the search
+	 * @param shared The incumbent shared by the portfolio's searches
+	 */
+	public void share(CancellationToken token, SharedIncumbent shared) {
+
+		this.token = token;
+		this.shared = shared;
+	}
+
+	/**
+	 * Searches for the cheapest goal state the mode and budget allow.
+	 * @param startState The state which is being planned from
+	 * @return The best goal state found, or null if no plan exists.
+	 */
+	@Override
+	public GameState search(GameState startState) {
+
+		boolean anytime = options.getSearchMode() == PlannerOptions.SearchMode.ANYTIME;
+		double weight = options.getSearchMode() == PlannerOptions.SearchMode.ASTAR ? 1.0 : options.getWeight();
+		startTime = System.currentTimeMillis();
+		metrics.start();
+		long deadline = anytime ? startTime + options.getBudgetMs() : Long.MAX_VALUE;
+
+		startState.gCost = 0.0;
+		startState.calculateFunctionalCost(weight);
+		openSet.add(startState);
+		seen.put(startState, startState);
+
+		if (options.isDominance() && startState.getProblem().isTemporal()) {
+			dominance = new DominanceIndex();
+			dominance.prune(startState);
+		}
+		System.out.println("Planning...");
+
+		while (true) {
+
+			if (!improvePath(weight, anytime, deadline)) {
+
+				if (!cancelled) {
+					System.out.println("\nTime budget of " + options.getBudgetMs() + " ms used up at weight " + weight + ".");
+				}
+				break;
+			}
+			if (incumbent != null && weight > 1.0) {
+				System.out.println("\nWeight " + weight + " done after " + elapsed() + " ms: cost " + incumbent.getGCost() + ", at most " + String.format("%.3f", suboptimalityBound(weight)) + " times optimal.");
+			}
+			if (!anytime || incumbent == null || weight <= 1.0) {
+				break;
+			}
+			weight = Math.max(1.0, weight - options.getWeightStep());
+			reweigh(weight);
+		}
+
+		if (cancelled) {
+			System.out.println("\nCancelled after " + elapsed() + " ms" + (incumbent == null ? "." : " with a plan of cost " + incumbent.getGCost() + "."));
+		}
+		else if (incumbent == null && shared != null && shared.getGoal() != null) {
+			System.out.println("\nNo plan cheaper than the portfolio's cost of " + shared.getCost() + " found.");
+		}
+		else if (incumbent == null) {
+			System.out.println("FAILURE: No available path found.");
+		}
+		else {
+			System.out.println("\nSUCCESS: Path found with cost " + incumbent.getGCost() + " in " + elapsed() + " ms, " + metrics.getGenerated() + " states generated.");
+		}
+		System.out.println("Open list: " + openSet.getDecreaseKeyCount() + " decrease-key, " + openSet.getReopenCount() + " reopened.");
+
+		// A portfolio member's check is reported by the portfolio, next to the member's settings.
+		if (checker != null && shared == null) {
+			System.out.println(checker);
+		}
+		metrics.finish(incumbent);
+		System.out.println(metrics);
+
+		return incumbent;
+	}
+
+	/**
+	 * Returns the heuristic consistency check of this search, or null if the heuristic isn't checked.
+	 * @return
+	 */
+	public HeuristicChecker getChecker() {
+
+		return checker;
+	}
+
+	@Override
+	public SearchMetrics getMetrics() {
+
+		return metrics;
+	}
+
+	/**
+	 * Runs one weighted A* pass until no open state can lead to a goal cheaper than the incumbent.
+	 * @param weight
+	 * @param anytime True to hold back states that get cheaper after being expanded instead of reopening them
+	 * @param deadline The time after which the pass gives up, once there is an incumbent
+	 * @return False if the pass gave up because of the deadline.
+	 */
+	private boolean improvePath(double weight, boolean anytime, long deadline) {
+
+		while (!openSet.isEmpty() && bestCost() > openSet.peek().fCost) {
+
+			if (incumbent != null && System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			if (token != null && token.isCancelled()) {
+				cancelled = true;
+				return false;
+			}
+			long time = SearchMetrics.now();
+			GameState current = openSet.poll();
+			metrics.openListTimed(time);
+			printProgress(current);
+
+			if (current.isGoal()) {
+				offer(current, weight);
+				continue;
+			}
+			closedSet.add(current);
+			time = SearchMetrics.now();
+			List<GameState> children = current.generateChildren();
+			metrics.expanded(time, children.size());
+
+			for (GameState child : children) {
+				child.gCost = current.getGCost() + child.cost;
+
+				if (checker != null) {
+					checker.check(current, child);
+				}
+				GameState known = seen.get(child);
+
+				if (known != null && child.getGCost() >= known.getGCost()) {
+					metrics.duplicate();
+					continue;
+				}
+				if (dominance != null && dominance.prune(child)) {
+					metrics.dominated();
+					continue;
+				}
+				child.setAstarParent(current);
+				time = SearchMetrics.now();
+				child.calculateFunctionalCost(weight);
+				metrics.heuristicTimed(time);
+				seen.put(child, child);
+
+				if (child.isGoal()) {
+					offer(child, weight);
+				}
+				// The heuristic is admissible, so nothing past the child beats the portfolio's plan.
+				if (shared != null && child.getGCost() + child.hCost >= shared.getCost()) {
+					continue;
+				}
+				time = SearchMetrics.now();
+
+				if (closedSet.contains(child)) {
+
+					// ARA* leaves it for the next pass; plain and weighted A* expand it again.
+					if (anytime) {
+						inconsistent.put(child, child);
+					}
+					else {
+						closedSet.remove(child);
+						openSet.reopen(child);
+						metrics.reopened();
+					}
+				}
+				else if (openSet.contains(child)) {
+					openSet.decreaseKey(child);
+				}
+				else {
+					openSet.add(child);
+				}
+				metrics.openListTimed(time);
+			}
+			metrics.sizes(openSet.size(), closedSet.size());
+		}
+		return true;
+	}
+
+	/**
+	 * Makes a goal state the incumbent if it is cheaper than the current one, and logs it.
+	 * @param goal
+	 * @param weight
+	 */
+	private void offer(GameState goal, double weight) {
+
+		if (incumbent != null && goal.getGCost() >= incumbent.getGCost()) {
+			return;
+		}
+		incumbent = goal;
+		solutionCount++;
+
+		if (shared != null) {
+			shared.offer(goal, options.getSearchSettings());
+		}
+
+		if (options.getSearchMode() == PlannerOptions.SearchMode.ANYTIME) {
+			System.out.println("\nSolution " + solutionCount + ": cost " + goal.getGCost() + " after " + elapsed() + " ms (weight " + weight + ")");
+		}
+	}
+
+	/**
+	 * Returns the cost of the cheapest plan known, this search's or the portfolio's, or infinity.
+	 * @return
+	 */
+	private double bestCost() {
+
+		double cost = incumbent == null ? Double.POSITIVE_INFINITY : incumbent.getGCost();
+
+		return shared == null ? cost : Math.min(cost, shared.getCost());
+	}
+
+	/**
+	 * Puts the open and inconsistent states back on the open list under a new weight and starts a new pass.
+	 * @param weight
+	 */
+	private void reweigh(double weight) {
+
+		List<GameState> states = new ArrayList<GameState>(openSet.drain());
+		states.addAll(inconsistent.values());
+		inconsistent.clear();
+		closedSet.clear();
+
+		for (GameState state : states) {
+			state.reweigh(weight);
+			openSet.add(state);
+		}
+	}
+
+	/**
+	 * Returns the factor by which the incumbent can at most exceed the optimal cost: the weight, or the incumbent's
+	 * cost over the lowest unweighted f of any state left to expand if that is tighter.
+	 * @param weight
+	 * @return
+	 */
+	private double suboptimalityBound(double weight) {
+
+		double lowest = incumbent.getGCost();
+
+		for (GameState state : openSet.getStates()) {
+			lowest = Math.min(lowest, state.getGCost() + state.hCost);
+		}
+		for (GameState state : inconsistent.values()) {
+			lowest = Math.min(lowest, state.getGCost() + state.hCost);
+		}
+		return lowest <= 0.0 ? weight : Math.min(weight, incumbent.getGCost() / lowest);
+	}
+
+	/**
+	 * Prints how far towards the goal the search has got, every 10 percent.
+	 * @param current
+	 */
+	private void printProgress(GameState current) {
+
+		double currentProgress = (double) (current.getCurrentGold() + current.getCurrentWood()) / (current.getRequiredGold() + current.getRequiredWood()) * 100;
+
+		if (currentProgress > lastPrintedProgress && currentProgress % 10 == 0) {
+			System.out.print(Math.round(currentProgress) + "%...");
+			lastPrintedProgress = currentProgress;
+		}
+	}
+
+	/**
+	 * Returns the milliseconds since the search started.
+	 * @return
+	 */
+	private long elapsed() {
+
+		return System.currentTimeMillis() - startTime;
+	}
+}
@@ -0,0 +1,27 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * Tells searches running on other threads to stop. A search checks the token before every expansion and returns
+ * the best goal it has found so far once it is cancelled.
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Asks every search holding the token to stop.
+	 */
+	public void cancel() {
+
+		cancelled = true;
+	}
+
+	/**
+	 * Returns true once the token has been cancelled.
+	 * @return
+	 */
+	public boolean isCancelled() {
+
+		return cancelled;
+	}
+}
@@ -0,0 +1,213 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Walking distances on the map, as BFS distance fields. A field holds, for every cell, the number of steps a peasant
+ * needs to reach the field's source cell when moving in the eight directions SEPIA allows and going around the
+ * townhall, other buildings and resource nodes. Peasants are not treated as obstacles since they keep moving.
+ *
+ * Fields are computed on first use and cached per source cell: one per townhall and resource node for the
+ * heuristic, and one per stand cell next to them for MoveAction costs. The obstacles only change when a resource
+ * is used up and its cell frees up, so the cache is keyed by the set of used-up resources (GameState's depletion
+ * key). States that have used up the same resources share fields; a new depletion is the only thing that makes
+ * the search compute new ones.
+ *
+ * A cache is not thread-safe; PlanningProblem hands every thread its own.
+ */
+public class DistanceCache {
+
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private static final int MAX_OBSTACLE_SETS = 64;
+
+	private final PlanningProblem problem;
+	private final Map<Long, Map<Integer, int[]>> fields;
+
+	/**
+	 * Creates an empty cache for the given problem.
+	 * @param problem
+	 */
+	public DistanceCache(PlanningProblem problem) {
+
+		this.problem = problem;
+		this.fields = new LinkedHashMap<Long, Map<Integer, int[]>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Map<Integer, int[]>> eldest) {
+
+				return size() > MAX_OBSTACLE_SETS;
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of steps between two cells given the resources used up in the state, or UNREACHABLE.
+	 * @param state
+	 * @param fromCell
+	 * @param toCell
+	 * @return
+	 */
+	public int distance(GameState state, int fromCell, int toCell) {
+
+		return getField(state, toCell)[fromCell];
+	}
+
+	/**
+	 * Returns the number of steps from a cell to the nearest cell next to a resource, or UNREACHABLE.
+	 * @param state
+	 * @param resource Index of the resource in the problem's resource table
+	 * @param fromCell
+	 * @return
+	 */
+	public int distanceToResource(GameState state, int resource, int fromCell) {
+
+		return adjacentDistance(getField(state, problem.getResourceCell(resource))[fromCell]);
+	}
+
+	/**
+	 * Returns the number of steps from a cell to the nearest cell next to the townhall, or UNREACHABLE.
+	 * @param state
+	 * @param fromCell
+	 * @return
+	 */
+	public int distanceToTownhall(GameState state, int fromCell) {
+
+		return adjacentDistance(getField(state, problem.getTownhallCell())[fromCell]);
+	}
+
+	/**
+	 * Returns the fewest steps between a cell next to a resource and a cell next to the townhall, or UNREACHABLE.
+	 * @param state
+	 * @param resource Index of the resource in the problem's resource table
+	 * @return
+	 */
+	public int distanceBetweenResourceAndTownhall(GameState state, int resource) {
+
+		int[] field = getField(state, problem.getTownhallCell());
+		int resourceCell = problem.getResourceCell(resource);
+		int x = resourceCell % problem.getXExtent();
+		int y = resourceCell / problem.getXExtent();
+		int shortest = UNREACHABLE;
+
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				int nx = x + dx;
+				int ny = y + dy;
+
+				if ((dx == 0 && dy == 0) || nx < 0 || ny < 0 || nx >= problem.getXExtent() || ny >= problem.getYExtent()) {
+					continue;
+				}
+				shortest = Math.min(shortest, adjacentDistance(field[problem.getCell(nx, ny)]));
+			}
+		}
+		return shortest;
+	}
+
+	/**
+	 * Converts a distance to an obstacle's own cell to the distance to a cell next to it.
+	 * @param distance
+	 * @return
+	 */
+	private static int adjacentDistance(int distance) {
+
+		if (distance == UNREACHABLE) {
+
+			return UNREACHABLE;
+		}
+		return Math.max(0, distance - 1);
+	}
+
+	/**
+	 * Returns the distance field of a source cell for the obstacles of the given state, computing it if needed.
+	 * @param state
+	 * @param sourceCell
+	 * @return
+	 */
+	public int[] getField(GameState state, int sourceCell) {
+
+		Long key = state.getDepletionKey();
+		Map<Integer, int[]> byCell = fields.get(key);
+
+		if (byCell == null) {
+			byCell = new HashMap<Integer, int[]>();
+			fields.put(key, byCell);
+		}
+		int[] field = byCell.get(sourceCell);
+
+		if (field == null) {
+			field = breadthFirstSearch(obstaclesOf(state), sourceCell);
+			byCell.put(sourceCell, field);
+		}
+		return field;
+	}
+
+	/**
+	 * Builds the obstacle bitset of a state: the static obstacles less every resource the state has used up.
+	 * @param state
+	 * @return
+	 */
+	private long[] obstaclesOf(GameState state) {
+
+		long[] obstacles = problem.copyStaticOccupancy();
+
+		for (int resource = 0; resource < problem.getResourceCount(); resource++) {
+
+			if (state.getResourceAmount(resource) <= 0) {
+				PlanningProblem.clearBit(obstacles, problem.getResourceCell(resource));
+			}
+		}
+		return obstacles;
+	}
+
+	/**
+	 * Computes the number of steps from every cell to the source cell. The source itself may be an obstacle (the
+	 * townhall or a resource); the search starts from it and only walks through free cells.
+	 * @param obstacles
+	 * @param sourceCell
+	 * @return
+	 */
+	private int[] breadthFirstSearch(long[] obstacles, int sourceCell) {
+
+		int xExtent = problem.getXExtent();
+		int yExtent = problem.getYExtent();
+		int[] field = new int[xExtent * yExtent];
+		int[] queue = new int[field.length];
+		int head = 0;
+		int tail = 0;
+
+		for (int cell = 0; cell < field.length; cell++) {
+			field[cell] = UNREACHABLE;
+		}
+		field[sourceCell] = 0;
+		queue[tail++] = sourceCell;
+
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = cell % xExtent;
+			int y = cell / xExtent;
+
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					int nx = x + dx;
+					int ny = y + dy;
+
+					if ((dx == 0 && dy == 0) || nx < 0 || ny < 0 || nx >= xExtent || ny >= yExtent) {
+						continue;
+					}
+					int next = ny * xExtent + nx;
+
+					if (field[next] == UNREACHABLE && !PlanningProblem.testBit(obstacles, next)) {
+						field[next] = field[cell] + 1;
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+		return field;
+	}
+}
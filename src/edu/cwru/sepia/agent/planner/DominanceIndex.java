@@ -0,0 +1,65 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dominance pruning for the search. A generated state is dropped if a known state dominates it (see
+ * GameState.dominates): same peasants, cargo and resources left, but at least as much stock and food, and no higher
+ * cost or later times. Anything a plan through the dropped state could reach, the dominating state reaches as
+ * cheaply, so the pruning keeps the plan optimal, or within the weight of weighted A*.
+ *
+ * The known states are indexed by their configuration key, and only the states no other known state dominates are
+ * kept: a new state replaces the ones it dominates, which it also covers for every state they would have dominated.
+ *
+ * Only states that differ in stock, food or times can dominate each other without being equal. When summed action
+ * costs are minimized the stock and food follow from the peasants and resources, so a state is only ever dominated
+ * by an equal one, which duplicate detection already catches; the searches therefore only use the index in a
+ * makespan search, where the same configuration is reached with peasants free at different times.
+ */
+public class DominanceIndex {
+
+	private final Map<Long, List<GameState>> states;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public DominanceIndex() {
+
+		this.states = new HashMap<Long, List<GameState>>();
+	}
+
+	/**
+	 * Checks a generated state against the known states of its configuration, and adds it if none dominates it.
+	 * @param state A state with its g cost set
+	 * @return True if the state is dominated and should be dropped.
+	 */
+	public boolean prune(GameState state) {
+
+		Long key = state.getConfigurationKey();
+		List<GameState> known = states.get(key);
+
+		if (known == null) {
+			known = new ArrayList<GameState>(2);
+			states.put(key, known);
+		}
+		for (GameState other : known) {
+
+			if (other.dominates(state)) {
+				return true;
+			}
+		}
+		for (Iterator<GameState> i = known.iterator(); i.hasNext();) {
+
+			if (state.dominates(i.next())) {
+				i.remove();
+			}
+		}
+		known.add(state);
+
+		return false;
+	}
+}
@@ -3,15 +3,19 @@ package edu.cwru.sepia.agent.planner;
 import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
 import edu.cwru.sepia.agent.planner.actions.DepositAction;
 import edu.cwru.sepia.agent.planner.actions.HarvestAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycle;
 import edu.cwru.sepia.agent.planner.actions.MoveAction;
 import edu.cwru.sepia.agent.planner.actions.StripsAction;
 import edu.cwru.sepia.environment.model.state.ResourceNode;
-import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.ResourceType;
 import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Unit.UnitView;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -31,37 +35,65 @@ import java.util.Map;
  *
  * I recommend storing the actions that generated the instance of the GameState in this class using whatever
  * class/structure you use to represent actions.
+ *
+ * The search runs on a packed encoding: peasants are a long[] of PackedPeasant records, resources are
+ * ResourceAmounts indexed by the PlanningProblem's resource table (0 once a node is used up), and gold, wood and
+ * food are plain ints. Everything that is the same for every state lives in the shared PlanningProblem. Peasant and
+ * ResourceNode objects are only built on request by getPeasants and getResources. A child shares its parent's
+ * peasants and resources and only copies what its action changes: the peasant array is copied on its first write,
+ * and ResourceAmounts is persistent, so a harvest copies a single chunk.
+ *
+ * Peasants are interchangeable for planning, so the peasant array is kept in canonical order, sorted by (cell,
+ * cargo type, cargo amount), and the fingerprint and equals leave the ids out. Two states that only differ in which
+ * peasant stands where are the same search node. PlannerAgent maps the ids back when it rebuilds the plan.
+ *
+ * Each state also keeps an occupancy bitset over the map (one bit per cell) for the free-cell checks of
+ * generateChildren. It starts from the PlanningProblem's static obstacles with the peasants overlaid, is shared with
+ * children the same way as the peasant array, and is updated bit by bit as peasants move, appear, and resources are
+ * used up.
+ *
+ * When the problem is temporal the search minimizes the makespan, the turn the goal is reached, instead of the sum
+ * of the action costs. Every peasant then carries the time it is busy until, the townhall has its own, and a state
+ * remembers when its latest gold was deposited. An action starts when its unit is free and keeps the unit busy for
+ * its duration; a BuildPeasant starts at the current clock at the earliest and also waits for the townhall and the
+ * gold it spends, and the new peasant is free once it is built. The cost of a child is how much it pushes the
+ * makespan out, so the g value of a state is its makespan, and a peasant idling while the others walk costs as much
+ * as the walking. Only the peasants that are free first get to act, so
+ * the search moves a global clock forward instead of trying every order of the same schedule.
  */
 public class GameState implements Comparable<GameState> {
 	
-	public State.StateView stateView;
 	public StripsAction actionHistory;
-	public GameState parent;
 	public GameState astarParent;
-	public List<UnitView> units;
-	public List<ResourceNode> resources;
-	public Map<Integer, Peasant> peasants;
-	public UnitView townhall;
 	public double fCost, gCost, hCost, cost;
 	
-	private int playernum;
-	private int requiredGold;
+	private final PlanningProblem problem;
+	private long[] peasants;
+	private boolean peasantsShared;
+	private long[] occupancy;
+	private boolean occupancyShared;
+	private ResourceAmounts resourceAmounts;
 	private int currentGold;
+	private int currentWood;
 	private int grossGold;
-	private int requiredWood;
 	private int grossWood;
 	private int food;
-	private int currentWood;
-	private int xExtent;
-	private int yExtent;
-		
+	private int townhallFree;
+	private int goldReady;
+	private long fingerprint;
+	private long depletionKey;
 	
-	private boolean buildPeasants;
+	private static final int CARRY_LIMIT = 100;
+	private static final double HARVEST_COST = 2.0;
+	private static final double DEPOSIT_COST = 2.0;
 
     /**
      * Construct a GameState from a stateview object. This is used to construct the initial search node. All other
      * nodes should be constructed from another constructor you create or by factory functions that you create.
      *
+     * The gold and wood in stock, the peasants' cargo and the food left are read from the stateview, so a state can
+     * also be built partway through an episode to plan the rest of it from there.
+     *
      * @param state The current stateview at the time the plan is being created
      * @param playernum The player number of agent that is planning
      * @param requiredGold The goal amount of gold (e.g. 200 for the small scenario)
@@ -70,29 +102,66 @@ public class GameState implements Comparable<GameState> {
      */
     public GameState(State.StateView state, int playernum, int requiredGold, int requiredWood, boolean buildPeasants) {
 
-    	this.playernum = playernum;
-    	this.stateView = state; 
-    	this.requiredGold = requiredGold;
-    	this.requiredWood = requiredWood;
-    	this.buildPeasants = buildPeasants;
-    	this.xExtent = stateView.getXExtent();
-    	this.yExtent = stateView.getYExtent();
-    	this.units = stateView.getAllUnits();
+    	this(state, playernum, requiredGold, requiredWood, buildPeasants, false);
+    }
+
+    /**
+     * Construct the initial search node of a problem that optionally minimizes the makespan.
+     *
+     * @param state The current stateview at the time the plan is being created
+     * @param playernum The player number of agent that is planning
+     * @param requiredGold The goal amount of gold
+     * @param requiredWood The goal amount of wood
+     * @param buildPeasants True if the BuildPeasant action should be considered
+     * @param temporal True to track when units are busy and minimize the makespan instead of the summed costs
+     */
+    public GameState(State.StateView state, int playernum, int requiredGold, int requiredWood, boolean buildPeasants, boolean temporal) {
+
+    	this.problem = new PlanningProblem(state, playernum, requiredGold, requiredWood, buildPeasants, temporal);
     	this.gCost = 0.0;
     	this.cost = 0.0;
-    	this.fCost = Double.MAX_VALUE;    	
-    	this.peasants = new HashMap<Integer, Peasant>();
-    	this.resources = new ArrayList<ResourceNode>();
+    	this.fCost = Double.MAX_VALUE;
     	
-    	// Find and bind all units and resources in the state.
-    	discoverUnits(state);
-    	discoverResources(state);
+    	// Find and bind all peasants and resources in the state.
+    	discoverPeasants(state);
+    	discoverResources();
     	
-    	this.food = stateView.getSupplyCap(townhall.getID()) - 1;
+    	this.currentGold = stock(state, ResourceType.GOLD);
+    	this.currentWood = stock(state, ResourceType.WOOD);
+    	this.food = state.getSupplyCap(playernum) - state.getSupplyAmount(playernum);
     	this.grossGold = 0;
     	this.grossWood = 0;
+    	this.fingerprint = computeFingerprint();
+    	this.depletionKey = computeDepletionKey();
     }
-    
+
+    /**
+     * Construct a node for the state of the game partway through an episode, on the problem of the state the plan was
+     * made from. The goal, the search settings and the map tables are that problem's, so only the peasants, the
+     * amounts left in the resources and the stock are read from the stateview.
+     *
+     * @param state The current stateview
+     * @param start The state the plan being executed was made from
+     */
+    public GameState(State.StateView state, GameState start) {
+
+    	this.problem = start.problem;
+    	this.gCost = 0.0;
+    	this.cost = 0.0;
+    	this.fCost = Double.MAX_VALUE;
+
+    	discoverPeasants(state);
+    	readResources(state);
+
+    	this.currentGold = stock(state, ResourceType.GOLD);
+    	this.currentWood = stock(state, ResourceType.WOOD);
+    	this.food = state.getSupplyCap(problem.getPlayernum()) - state.getSupplyAmount(problem.getPlayernum());
+    	this.grossGold = 0;
+    	this.grossWood = 0;
+    	this.fingerprint = computeFingerprint();
+    	this.depletionKey = computeDepletionKey();
+    }
+
     /**
      * Constructs a game state from a parent game state and the action that resulted in this state
      * @param parent
@@ -100,41 +169,67 @@ public class GameState implements Comparable<GameState> {
      */
     public GameState(GameState parent, StripsAction actionHistory) {
     	
-    	this.playernum = parent.playernum;
+    	this(parent, actionHistory, parent.problem);
+    }
+    
+    /**
+     * Constructs a game state from a parent game state and an action, on the given problem.
+     * @param parent
+     * @param actionHistory
+     * @param problem
+     */
+    private GameState(GameState parent, StripsAction actionHistory, PlanningProblem problem) {
+    	
+    	this.problem = problem;
     	this.actionHistory = actionHistory;
-    	this.parent = parent;
-    	this.stateView = parent.stateView;
-    	this.requiredGold = parent.requiredGold;
-    	this.requiredWood = parent.requiredWood;
+    	this.astarParent = parent;
     	this.currentGold = parent.currentGold;
     	this.currentWood = parent.currentWood;
-    	this.buildPeasants = parent.buildPeasants;
-    	this.xExtent = this.stateView.getXExtent();
-    	this.yExtent = this.stateView.getYExtent();
-    	this.units = parent.units;
-    	this.resources = new ArrayList<ResourceNode>();
-    	this.peasants = new HashMap<Integer, Peasant>();
     	this.gCost = Double.MAX_VALUE;
     	this.cost = 0.0;
     	this.fCost = Double.MAX_VALUE;
     	
-    	// creates new peasants for the child so these peasants can be modified without affecting parent state
-    	for (Peasant peasant : parent.peasants.values()) {
-    		this.peasants.put(peasant.getID(), peasant.clone(peasant));
-    	}
-    	
-    	// creates new resources for the child so these resources can be modified without affecting parent state
-    	for (ResourceNode resource : parent.resources) {
-    		this.resources.add(cloneResource(resource));
-    	}
+    	// shares the parent's peasants and resources; setPeasant copies the peasants before the first change
+    	this.peasants = parent.peasants;
+    	this.peasantsShared = true;
+    	this.occupancy = parent.occupancy;
+    	this.occupancyShared = true;
+    	this.resourceAmounts = parent.resourceAmounts;
     	
-    	this.townhall = parent.townhall;	
     	this.food = parent.food;
+    	this.townhallFree = parent.townhallFree;
+    	this.goldReady = parent.goldReady;
     	this.grossGold = parent.grossGold;
     	this.grossWood = parent.grossWood;
+    	this.fingerprint = parent.fingerprint;
+    	this.depletionKey = parent.depletionKey;
+    }
+
+    /**
+     * Copies a state onto a problem that differs from its own only in search settings. The copy has no parent.
+     * @param state
+     * @param problem
+     */
+    private GameState(GameState state, PlanningProblem problem) {
+    	
+    	this(state, null, problem);
+    	this.astarParent = null;
+    	this.gCost = state.gCost;
     }
     
-    
+    /**
+     * Returns a copy of this state to start a separate search from, with the HarvestCycle macro action turned on or
+     * off, the given successor pruning and the partial-order reduction turned on or off. Searches running at the same
+     * time each need their own start state, since a search writes its costs into it.
+     * @param macros
+     * @param movePruning
+     * @param partialOrder
+     * @return
+     */
+    public GameState copy(boolean macros, MovePruning movePruning, boolean partialOrder) {
+    	
+    	return new GameState(this, problem.withSettings(macros, movePruning, partialOrder));
+    }
 
     /**
      * Unlike in the first A* assignment there are many possible goal states. As long as the wood and gold requirements
@@ -145,7 +240,7 @@ public class GameState implements Comparable<GameState> {
      */
     public boolean isGoal() {
         
-    	return currentWood >= requiredWood && currentGold >= requiredGold;
+    	return currentWood >= problem.getRequiredWood() && currentGold >= problem.getRequiredGold();
     }
 
     /**
@@ -157,158 +252,535 @@ public class GameState implements Comparable<GameState> {
     public List<GameState> generateChildren() {
         
     	List<GameState> children = new ArrayList<GameState>();
+    	UnitView townhall = problem.getTownhall();
     	
     	// Generate BuildPeasant state if preconditions met
-    	if (buildPeasants && currentGold >= 400 && food > 0) {
+    	if (problem.isBuildPeasants() && currentGold >= 400 && food > 0) {
     		BuildPeasant buildPeasant = new BuildPeasant(townhall.getID());
-    		GameState st = new GameState(this, buildPeasant);
-			children.add(buildPeasant.apply(st));
+    		
+    		if (buildPeasant.preconditionsMet(this)) {
+    			GameState st = new GameState(this, buildPeasant);
+    			children.add(buildPeasant.apply(st));
+    		}
     	}
     	
-    	// Create states for every action for every peasant.
-    	for (Peasant peasant : peasants.values()) {    		
-			Position townhallPos = getUnitPosition(townhall);
-			Position peasantPos = peasant.getPosition();
+    	// Create states for every action for every peasant. A temporal search lets the peasants that are free first
+    	// act, and only falls back to the others if none of those can.
+    	int clock = problem.isTemporal() ? getClock() : 0;
+    	int actions = addPeasantChildren(children, clock);
+    	
+    	if (problem.isTemporal() && actions == 0) {
+    		addPeasantChildren(children, Integer.MAX_VALUE);
+    	}
+    	
+    	if (problem.isTemporal()) {
+    		int makespan = getMakespan();
+    		
+    		for (GameState child : children) {
+    			child.cost = child.getMakespan() - makespan;
+    		}
+    	}
+    	
+        return children;
+    }
+    
+    /**
+     * Generates the children for the actions of every peasant. In a temporal search only the peasants that are free
+     * by the given time take part.
+     * @param children The list to add the children to
+     * @param freeBy Time a peasant must be free by to act, ignored unless the problem is temporal
+     * @return The number of actions found, including those the partial-order reduction left out
+     */
+    private int addPeasantChildren(List<GameState> children, int freeBy) {
+    	Position townhallPos = problem.getTownhallPosition();
+    	int actions = 0;
+    	
+    	for (long peasant : peasants) {
+    		if (problem.isTemporal() && PackedPeasant.getBusyUntil(peasant) > freeBy) {
+    			continue;
+    		}
+    		int peasantId = PackedPeasant.getId(peasant);
+			Position peasantPos = problem.getPosition(PackedPeasant.getCell(peasant));
     		
     		// If the peasant has cargo it should only be concerned with getting back to the townhall to deposit.
-    		if (peasant.getCargoAmount() > 0) {    			
+    		if (PackedPeasant.getCargoAmount(peasant) > 0) {    			
     			
     			// The peasant is next to the townhall and should deposit.
     			if (peasantPos.isAdjacent(townhallPos)) {
-    				DepositAction depositAction = new DepositAction(peasant.getID(), peasantPos.getDirection(townhallPos), peasant.getCargoType().name().toUpperCase());
-    				GameState st = new GameState(this, depositAction);
-    				children.add(depositAction.apply(st));
+    				DepositAction depositAction = new DepositAction(peasantId, peasantPos.getDirection(townhallPos), PackedPeasant.getCargoType(peasant).name().toUpperCase());
+    				addChild(children, depositAction);
+    				actions++;
     			}
     			// The peasant has cargo and needs to get to the townhall to deposit.
     			else {
-    				List<Position> openPositions = townhallPos.getValidAdjacentPositions(stateView, townhall, peasants, resources);
+    				List<Position> openPositions = standCells(townhallPos, peasantPos);
         			
         			for (Position position : openPositions) {    				
-        				MoveAction moveAction = new MoveAction(peasant.getID(), position);
-        				GameState st = new GameState(this, moveAction);
-        				children.add(moveAction.apply(st));
+        				MoveAction moveAction = new MoveAction(peasantId, position);
+        				addChild(children, moveAction);
+        				actions++;
         			}
     			}    			
     		}
-    		// The peasant does not have cargo and needs to either get to a resource or harvest if it is next to one already.
+    		// Without the macro action an empty peasant walks next to a resource we still need, and harvests there.
+    		else if (!problem.isMacros()) {
+    			for (int resource : targetResources(peasant)) {
+    				Position resourcePos = problem.getResourcePosition(resource);
+    				
+    				if (peasantPos.isAdjacent(resourcePos)) {
+    					String nodeType = problem.getResourceType(resource) == ResourceType.WOOD ? "TREE" : "GOLD_MINE";
+    					HarvestAction harvestAction = new HarvestAction(peasantId, peasantPos.getDirection(resourcePos), nodeType, problem.getResourceId(resource));
+    					addChild(children, harvestAction);
+    					actions++;
+    					continue;
+    				}
+    				for (Position position : standCells(resourcePos, peasantPos)) {
+    					MoveAction moveAction = new MoveAction(peasantId, position);
+    					addChild(children, moveAction);
+    					actions++;
+    				}
+    			}
+    		}
+    		// The peasant does not have cargo, so it makes a whole trip to a resource we still need and back as one step.
     		else {
-    			for (ResourceNode resource : resources) {
-    				Position resourcePos = getResourcePosition(resource);
+    			for (int resource : targetResources(peasant)) {
+    				Position resourcePos = problem.getResourcePosition(resource);
+    				Position resourceStand = nearestStandCell(resourcePos, peasantPos, peasantPos);
     				
-    				if (peasant.getCargoAmount() == 0 && peasantPos.isAdjacent(resourcePos)) {
-    					HarvestAction harvestAction = new HarvestAction(peasant.getID(), peasantPos.getDirection(resourcePos), resource.getType().name().toUpperCase(), resource.ID);
-    					GameState st = new GameState(this, harvestAction);
-    					children.add(harvestAction.apply(st));
+    				if (resourceStand == null) {
+    					continue;
     				}
-    				// The peasant needs to move adjacent to the resource we still need.
-    				else if (needResource(resource)) {
-    					List<Position> openPositions = resourcePos.getValidAdjacentPositions(stateView, townhall, peasants, resources);
-            			for (Position position : openPositions) { 
-            				MoveAction moveAction = new MoveAction(peasant.getID(), position);
-            				GameState st = new GameState(this, moveAction);
-            				children.add(moveAction.apply(st));
-            			}
+    				Position townhallStand = nearestStandCell(townhallPos, resourceStand, peasantPos);
+    				
+    				if (townhallStand == null) {
+    					continue;
     				}
+    				HarvestCycle harvestCycle = new HarvestCycle(peasantId, peasantPos, problem.getResourceId(resource), problem.getResourceType(resource), resourcePos, resourceStand, townhallPos, townhallStand);
+    				addChild(children, harvestCycle);
+    				actions++;
     			}
     		}
     	}
     	
-        return children;
+    	return actions;
+    }
+    
+    /**
+     * Adds the child for a peasant's action, unless the partial-order reduction finds that the same state is reached
+     * by taking the action before the one that led here.
+     * @param children The list to add the child to
+     * @param action
+     */
+    private void addChild(List<GameState> children, StripsAction action) {
+    	
+    	if (problem.isPartialOrder() && PartialOrderReduction.isRedundant(this, action)) {
+    		return;
+    	}
+    	GameState st = new GameState(this, action);
+    	children.add(action.apply(st));
+    }
+    
+    /**
+     * Returns the free cells next to a target a peasant may move to: all of them, or only the nearest if the move
+     * pruning says so.
+     * @param target The townhall or resource to stand next to
+     * @param from Where the peasant walks from
+     * @return
+     */
+    private List<Position> standCells(Position target, Position from) {
+    	
+    	if (!problem.getMovePruning().isNearestCell()) {
+    		return target.getValidAdjacentPositions(this);
+    	}
+    	List<Position> cells = new ArrayList<Position>(1);
+    	Position nearest = nearestStandCell(target, from, from);
+    	
+    	if (nearest != null) {
+    		cells.add(nearest);
+    	}
+    	return cells;
+    }
+    
+    /**
+     * Returns the resources an empty peasant may set out for: those that have something left and are still needed,
+     * cut down by the move pruning to the nearest of each type and to those no other empty peasant stands next to.
+     * @param peasant
+     * @return Resource indices, nearest first if the nearest are picked
+     */
+    private List<Integer> targetResources(long peasant) {
+    	MovePruning pruning = problem.getMovePruning();
+    	List<Integer> targets = new ArrayList<Integer>();
+    	List<Integer> untargeted = new ArrayList<Integer>();
+    	
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		
+    		if (resourceAmounts.get(resource) <= 0 || !needResource(resource)) {
+    			continue;
+    		}
+    		targets.add(resource);
+    		
+    		if (pruning.isSkipTargeted() && !isTargeted(resource, peasant)) {
+    			untargeted.add(resource);
+    		}
+    	}
+    	if (pruning.isSkipTargeted() && !untargeted.isEmpty()) {
+    		targets = untargeted;
+    	}
+    	if (pruning.getNearestResources() <= 0) {
+    		return targets;
+    	}
+    	final DistanceCache distances = problem.getDistances();
+    	final int cell = PackedPeasant.getCell(peasant);
+    	Collections.sort(targets, new Comparator<Integer>() {
+    		
+    		@Override
+    		public int compare(Integer a, Integer b) {
+    			
+    			return Integer.compare(distances.distanceToResource(GameState.this, a, cell), distances.distanceToResource(GameState.this, b, cell));
+    		}
+    	});
+    	List<Integer> nearest = new ArrayList<Integer>();
+    	int gold = 0;
+    	int wood = 0;
+    	
+    	for (int resource : targets) {
+    		
+    		if (problem.getResourceType(resource) == ResourceType.GOLD ? gold++ < pruning.getNearestResources() : wood++ < pruning.getNearestResources()) {
+    			nearest.add(resource);
+    		}
+    	}
+    	return nearest;
+    }
+    
+    /**
+     * Returns true if an empty peasant other than the given one stands next to a resource, ready to harvest it.
+     * @param resource
+     * @param peasant
+     * @return
+     */
+    private boolean isTargeted(int resource, long peasant) {
+    	int resourceCell = problem.getResourceCell(resource);
+    	Position resourcePos = problem.getPosition(resourceCell);
+    	
+    	for (long other : peasants) {
+    		
+    		if (other != peasant && PackedPeasant.getCargoAmount(other) == 0 && problem.getPosition(PackedPeasant.getCell(other)).isAdjacent(resourcePos)) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * Finds the free cell next to a target that is the shortest walk from a given position.
+     * @param target The townhall or resource to stand next to
+     * @param from Where the peasant walks from; returned as is if it is already next to the target
+     * @param vacated The cell the peasant leaves, which counts as free
+     * @return The cell to stand on, or null if every cell next to the target is taken
+     */
+    private Position nearestStandCell(Position target, Position from, Position vacated) {
+    	
+    	if (from.isAdjacent(target)) {
+    		return from;
+    	}
+    	List<Position> candidates = target.getValidAdjacentPositions(this);
+    	Position nearest = null;
+    	double nearestDistance = Double.MAX_VALUE;
+    	
+    	if (vacated.isAdjacent(target)) {
+    		candidates.add(vacated);
+    	}
+    	for (Position candidate : candidates) {
+    		double distance = getWalkingDistance(from, candidate);
+    		
+    		if (distance < nearestDistance) {
+    			nearest = candidate;
+    			nearestDistance = distance;
+    		}
+    	}
+    	
+    	return nearest;
     }
     
     /**
      * Write your heuristic function here. Remember this must be admissible for the properties of A* to hold. If you
      * can come up with an easy way of computing a consistent heuristic that is even better, but not strictly necessary.
      *
-     * This heuristic seeks to maximize state actions in the following order:
-     * 		1. Peasants adjacent to the townhall should deposit to free them up to get more resources
-     * 		2. Peasants with cargo should move to the townhall for depositing
-     * 		3. Peasants next to resources should harvest them
-     * 		4. Peasants with no cargo should get next to a resource
-     * 
-     * Encouraged over these movements are states that have progressed the farthest (build peasants, have more peasants, have more resources)
+     * The estimate counts the trips still needed: every 100 gold or wood missing is one trip. A trip to a resource
+     * costs at least the shortest round trip between the townhall and that resource plus the harvest and the deposit,
+     * and a resource can only supply as many trips as it has loads left, so the needed trips are filled from the
+     * cheapest resources first. Cargo a peasant already carries counts as a trip that only needs the walk back and
+     * the deposit. A peasant's first trip can also start closer to a resource than the townhall is, so the largest
+     * of those savings are taken off, at most one per peasant. Every part is a lower bound on what the actions
+     * charge, so the estimate never overestimates.
+     *
+     * In a temporal search that estimate is the work still to be done, and it is shared out over the peasants. A
+     * peasant can only work from the time it is free until the goal is reached, and one still to be built only from
+     * when the townhall could finish it after the current clock, so the goal can't be reached before the work plus
+     * those start times divided by the number of peasants. The plan may build any number of the peasants food allows, so the lower of the
+     * bounds with none and with all of them built is used (the bound moves steadily from one to the other as
+     * peasants are added). What that adds to the current makespan is the estimate.
      *
      * @return The value estimated remaining cost to reach a goal state from this state.
      */
     public double heuristic() {
-    	double overallH = 0.0;
+    	int goldTrips = tripsFor(problem.getRequiredGold() - currentGold);
+    	int woodTrips = tripsFor(problem.getRequiredWood() - currentWood);
+    	
+    	if (goldTrips + woodTrips == 0) {
+    		return 0.0;
+    	}
+    	double overallH = cheapestTrips(ResourceType.GOLD, goldTrips) + cheapestTrips(ResourceType.WOOD, woodTrips);
+    	
+    	// Not enough of a resource we still need is left, so the goal can't be reached from here.
+    	if (overallH == Double.POSITIVE_INFINITY) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	double[] savings = new double[peasants.length];
+    	
+    	for (int i = 0; i < peasants.length; i++) {
+    		savings[i] = firstTripSaving(peasants[i], goldTrips > 0, woodTrips > 0);
+    	}
+    	Arrays.sort(savings);
+    	
+    	for (int i = 0; i < Math.min(savings.length, goldTrips + woodTrips); i++) {
+    		overallH -= savings[savings.length - 1 - i];
+    	}
+    	overallH = Math.max(0.0, overallH);
+    	
+    	if (problem.isTemporal()) {
+    		return makespanBound(overallH);
+    	}
+
+        return overallH;
+    }
+    
+    /**
+     * Turns a lower bound on the work left into a lower bound on how much later than the current makespan the goal
+     * can be reached, as described for the heuristic.
+     * @param work
+     * @return
+     */
+    private double makespanBound(double work) {
+    	double starts = 0.0;
+    	
+    	for (long peasant : peasants) {
+    		starts += PackedPeasant.getBusyUntil(peasant);
+    	}
+    	double bound = (work + starts) / peasants.length;
+    	
+    	if (problem.isBuildPeasants() && food > 0) {
+    		int firstBirth = Math.max(townhallFree, getClock()) + problem.getBuildDuration();
+    		double withBuilt = (work + starts + (double) food * firstBirth) / (peasants.length + food);
+    		bound = Math.min(bound, withBuilt);
+    	}
+    	
+    	return Math.max(0.0, bound - getMakespan());
+    }
+    
+    /**
+     * Returns the number of trips needed to bring in the given amount.
+     * @param missing
+     * @return
+     */
+    private static int tripsFor(int missing) {
+    	return missing <= 0 ? 0 : (missing + CARRY_LIMIT - 1) / CARRY_LIMIT;
+    }
+    
+    /**
+     * Returns the least the given number of trips for a resource type can cost, taking the cheapest trips first, or
+     * infinity if there aren't that many loads of the type left.
+     * @param type
+     * @param trips
+     * @return
+     */
+    private double cheapestTrips(ResourceType type, int trips) {
+    	if (trips == 0) {
+    		return 0.0;
+    	}
+    	DistanceCache distances = problem.getDistances();
+    	double[] costs = new double[resourceAmounts.size() + peasants.length];
+    	int[] loads = new int[costs.length];
+    	int candidates = 0;
     	
-    	for (Peasant peasant : peasants.values()) {
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		double roundTrip = roundTrip(resource);
     		
-    		// peasant needs to deposit resource in townHall
-    		if (peasant.getCargoAmount() > 0 && actionHistory instanceof DepositAction) {
-    			overallH += 0;
+    		if (problem.getResourceType(resource) == type && roundTrip != Double.POSITIVE_INFINITY) {
+    			costs[candidates] = roundTrip;
+    			loads[candidates++] = tripsFor(resourceAmounts.get(resource));
     		}
-    		
-    		// peasant needs to move to townHall to be able to deposit resources
-    		if (peasant.getCargoAmount() > 0 && actionHistory instanceof MoveAction) {
-    			overallH += 25;
+    	}
+    	
+    	for (long peasant : peasants) {
+    		if (PackedPeasant.getCargoAmount(peasant) > 0 && PackedPeasant.getCargoType(peasant) == type) {
+    			int distance = distances.distanceToTownhall(this, PackedPeasant.getCell(peasant));
+    			
+    			if (distance != DistanceCache.UNREACHABLE) {
+    				costs[candidates] = distance + DEPOSIT_COST;
+    				loads[candidates++] = 1;
+    			}
     		}
+    	}
+    	double total = 0.0;
+    	
+    	while (trips > 0) {
+    		int cheapest = -1;
     		
-    		// peasant needs to harvest resource
-    		if (peasant.getCargoAmount() == 0 && actionHistory instanceof HarvestAction) {
-    			overallH += 50;
+    		for (int i = 0; i < candidates; i++) {
+    			if (loads[i] > 0 && (cheapest < 0 || costs[i] < costs[cheapest])) {
+    				cheapest = i;
+    			}
     		}
     		
-    		// Peasant needs to move to a resource to be able to harvest it
-    		if (peasant.getCargoAmount() == 0 && actionHistory instanceof MoveAction) {
-    			overallH += 100;
+    		if (cheapest < 0) {
+    			return Double.POSITIVE_INFINITY;
     		}
+    		int taken = Math.min(trips, loads[cheapest]);
+    		total += taken * costs[cheapest];
+    		trips -= taken;
+    		loads[cheapest] = 0;
     	}
     	
-    	// Encourage states that build peasants
-    	if (!(this.actionHistory instanceof BuildPeasant)) {
-    		overallH *= 10;
+    	return total;
+    }
+    
+    /**
+     * Returns the cost of a full trip from the townhall to a resource and back, including the harvest and the
+     * deposit, or infinity if the resource is used up or can't be reached.
+     * @param resource Index of the resource in the problem's resource table
+     * @return
+     */
+    private double roundTrip(int resource) {
+    	if (resourceAmounts.get(resource) <= 0) {
+    		return Double.POSITIVE_INFINITY;
     	}
+    	int distance = problem.getDistances().distanceBetweenResourceAndTownhall(this, resource);
     	
-    	// Encourage states that have gathered more resources overall.
-    	// Works with arbitrary resource requirements.
-    	overallH += 2.5 * (requiredWood + requiredGold + 400 * (2 - food)) - 2.5 * (grossWood + grossGold);
-    	
-    	// Encourage states that have multiple peasants (assuming that the maximum number of peasants is 3)
-    	overallH *= Math.pow(2, 3 - peasants.size()) ;
-
-        return overallH / peasants.size();
+    	if (distance == DistanceCache.UNREACHABLE) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	return 2 * distance + HARVEST_COST + DEPOSIT_COST;
     }
     
     /**
-     * Creates a clone of the resource
-     * @param resource
+     * Returns how much cheaper than a full round trip an empty handed peasant's next trip can be from where it stands,
+     * for the resource types still needed. Peasants carrying cargo save nothing here; their cargo is counted as a
+     * trip of its own.
+     * @param peasant
+     * @param needGold
+     * @param needWood
      * @return
      */
-    public ResourceNode cloneResource(ResourceNode resource) {
-    	return new ResourceNode(resource.getType(), resource.getxPosition(), resource.getyPosition(), resource.getAmountRemaining(), resource.ID);
+    private double firstTripSaving(long peasant, boolean needGold, boolean needWood) {
+    	if (PackedPeasant.getCargoAmount(peasant) > 0) {
+    		return 0.0;
+    	}
+    	DistanceCache distances = problem.getDistances();
+    	int cell = PackedPeasant.getCell(peasant);
+    	double largest = 0.0;
+    	
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		boolean needed = problem.getResourceType(resource) == ResourceType.GOLD ? needGold : needWood;
+    		
+    		if (needed && roundTrip(resource) != Double.POSITIVE_INFINITY) {
+    			int toResource = distances.distanceToResource(this, resource, cell);
+    			
+    			if (toResource != DistanceCache.UNREACHABLE) {
+    				// A round trip walks the townhall leg twice; this trip walks it once and starts with the peasant's own walk.
+    				largest = Math.max(largest, distances.distanceBetweenResourceAndTownhall(this, resource) - toResource);
+    			}
+    		}
+    	}
+    	
+    	return largest;
     }
     
     /**
-     * finds all the units in the stateView and separates them according to type, used in initial setup
+     * Finds all the peasants in the stateView and packs them in canonical order, used in initial setup
      * @param s
      */
-    private void discoverUnits(State.StateView s) {
+    private void discoverPeasants(State.StateView s) {
+    	List<Long> found = new ArrayList<Long>();
     	
     	for (UnitView unit : s.getAllUnits()) {
     		String unitType = unit.getTemplateView().getName().toLowerCase();
     		
     		if (unitType.equals("peasant")) {
-    			Peasant peasant = new Peasant(unit);
-    			peasant.setPosition(new Position(unit.getXPosition(), unit.getYPosition()));
-    			this.peasants.put(unit.getID(), peasant);
-    		}
-    		else if (townhall == null && unitType.equals("townhall"))
-    		{
-    			this.townhall = unit;
+    			int cargo = unit.getCargoAmount();
+    			found.add(PackedPeasant.pack(unit.getID(), problem.getCell(unit.getXPosition(), unit.getYPosition()), cargo > 0 ? unit.getCargoType() : null, cargo));
     		}
     	}
+    	this.peasants = new long[found.size()];
+    	this.occupancy = problem.copyStaticOccupancy();
+    	
+    	for (int i = 0; i < peasants.length; i++) {
+    		peasants[i] = found.get(i);
+    		PlanningProblem.setBit(occupancy, PackedPeasant.getCell(peasants[i]));
+    	}
+    	sortPeasants();
     }
     
     /**
-     * Determines all remaining resources in the state.
+     * Returns the amount of a resource the player has in stock, used in initial setup.
      * @param s
+     * @param type
+     * @return
+     */
+    private int stock(State.StateView s, ResourceType type) {
+    	Integer amount = s.getResourceAmount(problem.getPlayernum(), type);
+    	
+    	return amount == null ? 0 : amount;
+    }
+    
+    /**
+     * Copies the starting amount of every resource, used in initial setup.
      */
-    private void discoverResources(State.StateView s) {
+    private void discoverResources() {
+    	int[] amounts = new int[problem.getResourceCount()];
     	
-    	for (ResourceView r : s.getAllResourceNodes()) {    		
-    		this.resources.add(new ResourceNode(r.getType(), r.getXPosition(), r.getYPosition(), r.getAmountRemaining(), r.getID()));
+    	for (int resource = 0; resource < amounts.length; resource++) {
+    		amounts[resource] = problem.getInitialResourceAmount(resource);
+    	}
+    	this.resourceAmounts = ResourceAmounts.of(amounts);
+    }
+
+    /**
+     * Reads what is left in every resource of the problem's table from the stateview. A resource that is gone has
+     * been used up, and its cell is cleared.
+     * @param s
+     */
+    private void readResources(State.StateView s) {
+    	int[] amounts = new int[problem.getResourceCount()];
+
+    	for (int resource = 0; resource < amounts.length; resource++) {
+    		ResourceNode.ResourceView view = s.getResourceNode(problem.getResourceId(resource));
+
+    		if (view != null && view.getAmountRemaining() > 0) {
+    			amounts[resource] = view.getAmountRemaining();
+    		}
+    		else {
+    			PlanningProblem.clearBit(occupancy, problem.getResourceCell(resource));
+    		}
+    	}
+    	this.resourceAmounts = ResourceAmounts.of(amounts);
+    }
+
+    /**
+     * Keeps the packed peasants in canonical order. The cell, cargo type and cargo amount sit above the id in a
+     * packed peasant, so sorting the longs orders peasants by (cell, cargo type, cargo amount), with the id only
+     * breaking ties between peasants that would compare equal anyway.
+     */
+    private void sortPeasants() {
+    	for (int i = 1; i < peasants.length; i++) {
+    		long peasant = peasants[i];
+    		int j = i - 1;
+    		
+    		while (j >= 0 && peasants[j] > peasant) {
+    			peasants[j + 1] = peasants[j];
+    			j--;
+    		}
+    		peasants[j + 1] = peasant;
     	}
     }
     
@@ -346,7 +818,24 @@ public class GameState implements Comparable<GameState> {
      * calculates the functional cost based on Gcost and the heuristic.
      */
     public void calculateFunctionalCost() {
-    	this.fCost = getGCost() + heuristic();
+    	calculateFunctionalCost(1.0);
+    }
+    
+    /**
+     * calculates the functional cost with the heuristic inflated by the given weight, as weighted A* uses it.
+     * @param weight
+     */
+    public void calculateFunctionalCost(double weight) {
+    	this.hCost = heuristic();
+    	reweigh(weight);
+    }
+    
+    /**
+     * Recomputes the functional cost for a new heuristic weight, reusing the heuristic value already calculated.
+     * @param weight
+     */
+    public void reweigh(double weight) {
+    	this.fCost = getGCost() + weight * hCost;
     }
     
     /**
@@ -354,145 +843,695 @@ public class GameState implements Comparable<GameState> {
      * @param reduce
      */
     public void reduceFood(int reduce) {
+    	fingerprint ^= Zobrist.key(Zobrist.FOOD, 0, food);
     	this.food -= reduce;
+    	fingerprint ^= Zobrist.key(Zobrist.FOOD, 0, food);
     }
     
     /**
-     * Used when creating a new peasant to ensure its ID is unique.
-     * @return
+     * Keeps a peasant busy for the duration of an action that starts when the peasant is free. Only a temporal
+     * problem tracks this.
+     * @param peasantId
+     * @param duration
      */
-    public int getLargestPeasantId() {
-    	
-    	int largest = 0;
-    	for (Peasant peasant : peasants.values()) {
-    		if (peasant.getID() > largest) {
-    			largest = peasant.getID();
-    		}
+    public void occupyPeasant(int peasantId, double duration) {
+    	if (!problem.isTemporal()) {
+    		return;
     	}
-    	
-    	return largest;
+    	int i = indexOfPeasant(peasantId);
+    	int end = checkTime(PackedPeasant.getBusyUntil(peasants[i]) + (int) Math.ceil(duration));
+    	setPeasant(i, PackedPeasant.withBusyUntil(peasants[i], end));
     }
-
+    
     /**
-     * This is necessary to use your state in the Java priority queue. See the official priority queue and Comparable
-     * interface documentation to learn how this function should work.
-     *
-     * @param o The other game state to compare
-     * @return 1 if this state costs more than the other, 0 if equal, -1 otherwise
+     * Records that a peasant's gold is in the townhall once it is free again, which a BuildPeasant has to wait for.
+     * Only a temporal problem where peasants may be built tracks this.
+     * @param peasantId
      */
-    @Override
-    public int compareTo(GameState o) {
-        
-    	if (this.getFunctionalCost() > o.getFunctionalCost()) {
-    		
-    		return 1;
+    public void markGoldDeposit(int peasantId) {
+    	if (!problem.isTemporal() || !problem.isBuildPeasants()) {
+    		return;
     	}
+    	int depositedAt = PackedPeasant.getBusyUntil(peasants[indexOfPeasant(peasantId)]);
     	
-    	if (this.getFunctionalCost() < o.getFunctionalCost()) {
-    		
-    		return -1;
+    	if (depositedAt > goldReady) {
+    		fingerprint ^= Zobrist.key(Zobrist.GOLD_READY, 0, goldReady);
+    		goldReady = depositedAt;
+    		fingerprint ^= Zobrist.key(Zobrist.GOLD_READY, 0, goldReady);
     	}
-    	
-        return 0;
     }
-
+    
     /**
-     * Looks at all aspects of a game state to determine equality with other state.
-     *
+     * Keeps the townhall busy building a peasant. The build starts at the clock, once the townhall is free and the
+     * gold it spends has been deposited, and the new peasant is free when it is done. Only a temporal problem tracks
+     * this.
+     * @param peasantId The peasant being built, already added to the state
+     */
+    public void occupyTownhall(int peasantId) {
+    	if (!problem.isTemporal()) {
+    		return;
+    	}
+    	int clock = Integer.MAX_VALUE;
+    	
+    	for (long peasant : peasants) {
+    		if (PackedPeasant.getId(peasant) != peasantId) {
+    			clock = Math.min(clock, PackedPeasant.getBusyUntil(peasant));
+    		}
+    	}
+    	int start = Math.max(Math.max(townhallFree, goldReady), clock == Integer.MAX_VALUE ? 0 : clock);
+    	int end = checkTime(start + problem.getBuildDuration());
+    	fingerprint ^= Zobrist.key(Zobrist.TOWNHALL_FREE, 0, townhallFree);
+    	townhallFree = end;
+    	fingerprint ^= Zobrist.key(Zobrist.TOWNHALL_FREE, 0, townhallFree);
+    	int i = indexOfPeasant(peasantId);
+    	setPeasant(i, PackedPeasant.withBusyUntil(peasants[i], end));
+    }
+    
+    /**
+     * Makes sure a time fits in a packed peasant.
+     * @param time
+     * @return The time
+     * @throws IllegalStateException if the plan runs longer than a packed peasant can record
+     */
+    private static int checkTime(int time) {
+    	if (time > PackedPeasant.MAX_TIME) {
+    		throw new IllegalStateException("Plans longer than " + PackedPeasant.MAX_TIME + " turns can't be planned for makespan");
+    	}
+    	return time;
+    }
+    
+    /**
+     * Returns the time the last unit finishes its actions, which is the g value of a temporal search. Always 0 if the
+     * problem isn't temporal.
+     * @return
+     */
+    public int getMakespan() {
+    	int makespan = townhallFree;
+    	
+    	for (long peasant : peasants) {
+    		makespan = Math.max(makespan, PackedPeasant.getBusyUntil(peasant));
+    	}
+    	
+    	return makespan;
+    }
+    
+    /**
+     * Returns true if a peasant is free by the clock, so a temporal search lets it act. Always true if the problem
+     * isn't temporal.
+     * @param peasantId
+     * @return
+     */
+    public boolean isPeasantFree(int peasantId) {
+    	
+    	return !problem.isTemporal() || PackedPeasant.getBusyUntil(peasants[indexOfPeasant(peasantId)]) <= getClock();
+    }
+    
+    /**
+     * Returns the time the first peasant is free, the point a temporal search has planned up to.
+     * @return
+     */
+    public int getClock() {
+    	int clock = Integer.MAX_VALUE;
+    	
+    	for (long peasant : peasants) {
+    		clock = Math.min(clock, PackedPeasant.getBusyUntil(peasant));
+    	}
+    	
+    	return clock == Integer.MAX_VALUE ? 0 : clock;
+    }
+    
+    /**
+     * Adds a newly created, empty handed peasant to the state.
+     * @param peasantId
+     * @param position
+     */
+    public void addPeasant(int peasantId, Position position) {
+    	long peasant = PackedPeasant.pack(peasantId, problem.getCell(position), null, 0);
+    	peasants = Arrays.copyOf(peasants, peasants.length + 1);
+    	peasantsShared = false;
+    	peasants[peasants.length - 1] = peasant;
+    	sortPeasants();
+    	setOccupied(problem.getCell(position), true);
+    	fingerprint ^= peasantKey(peasant);
+    }
+    
+    /**
+     * Moves a peasant to the given position. The cell it leaves only becomes free if no other peasant stands on it.
+     * @param peasantId
+     * @param destination
+     */
+    public void movePeasant(int peasantId, Position destination) {
+    	int i = indexOfPeasant(peasantId);
+    	int originCell = PackedPeasant.getCell(peasants[i]);
+    	int destinationCell = problem.getCell(destination);
+    	
+    	if (peasantsOn(originCell) == 1) {
+    		setOccupied(originCell, false);
+    	}
+    	setOccupied(destinationCell, true);
+    	setPeasant(i, PackedPeasant.withCell(peasants[i], destinationCell));
+    }
+    
+    /**
+     * Counts the peasants standing on a cell.
+     * @param cell
+     * @return
+     */
+    private int peasantsOn(int cell) {
+    	int count = 0;
+    	
+    	for (long peasant : peasants) {
+    		if (PackedPeasant.getCell(peasant) == cell) {
+    			count++;
+    		}
+    	}
+    	
+    	return count;
+    }
+    
+    /**
+     * Gives a peasant cargo of the given type.
+     * @param peasantId
+     * @param type
+     * @param amount
+     */
+    public void loadPeasant(int peasantId, ResourceType type, int amount) {
+    	int i = indexOfPeasant(peasantId);
+    	setPeasant(i, PackedPeasant.withCargo(peasants[i], type, PackedPeasant.getCargoAmount(peasants[i]) + amount));
+    }
+    
+    /**
+     * Empties a peasant's cargo.
+     * @param peasantId
+     */
+    public void unloadPeasant(int peasantId) {
+    	int i = indexOfPeasant(peasantId);
+    	setPeasant(i, PackedPeasant.withCargo(peasants[i], null, 0));
+    }
+    
+    /**
+     * Takes up to the given amount from a resource. A resource that is used up stays in the table with 0 remaining.
+     * @param resourceId
+     * @param amount
+     * @return The amount actually taken
+     */
+    public int harvestResource(int resourceId, int amount) {
+    	int resource = problem.getResourceIndex(resourceId);
+    	int remaining = resourceAmounts.get(resource);
+    	int taken = Math.min(amount, remaining);
+    	
+    	fingerprint ^= Zobrist.key(Zobrist.RESOURCE, resourceId, remaining);
+    	resourceAmounts = resourceAmounts.with(resource, remaining - taken);
+    	fingerprint ^= Zobrist.key(Zobrist.RESOURCE, resourceId, remaining - taken);
+    	
+    	if (remaining > 0 && remaining - taken <= 0) {
+    		setOccupied(problem.getResourceCell(resource), false);
+    		depletionKey ^= Zobrist.key(Zobrist.DEPLETED, resourceId, 0);
+    	}
+    	
+    	return taken;
+    }
+    
+    /**
+     * Sets or clears a cell in the occupancy bitset, copying the bitset first if it is still shared with the parent.
+     * @param cell
+     * @param occupied
+     */
+    private void setOccupied(int cell, boolean occupied) {
+    	if (occupancyShared) {
+    		occupancy = occupancy.clone();
+    		occupancyShared = false;
+    	}
+    	if (occupied) {
+    		PlanningProblem.setBit(occupancy, cell);
+    	}
+    	else {
+    		PlanningProblem.clearBit(occupancy, cell);
+    	}
+    }
+    
+    /**
+     * Replaces the packed peasant at the given index, keeping the fingerprint up to date.
+     * @param i
+     * @param peasant
+     */
+    private void setPeasant(int i, long peasant) {
+    	if (peasantsShared) {
+    		peasants = peasants.clone();
+    		peasantsShared = false;
+    	}
+    	fingerprint ^= peasantKey(peasants[i]);
+    	peasants[i] = peasant;
+    	fingerprint ^= peasantKey(peasant);
+    	sortPeasants();
+    }
+    
+    /**
+     * Returns the fingerprint key of a packed peasant, which leaves its id out.
+     * @param peasant
+     * @return
+     */
+    private static long peasantKey(long peasant) {
+    	return Zobrist.key(Zobrist.PEASANT, 0, PackedPeasant.withoutId(peasant));
+    }
+    
+    /**
+     * Returns the position of a peasant in the canonical order, or -1 if the state has no such peasant.
+     * @param peasantId
+     * @return
+     */
+    public int getCanonicalSlot(int peasantId) {
+    	return indexOfPeasant(peasantId);
+    }
+    
+    /**
+     * Returns the id of the peasant at a position in the canonical order.
+     * @param slot
+     * @return
+     */
+    public int getPeasantIdAt(int slot) {
+    	return PackedPeasant.getId(peasants[slot]);
+    }
+    
+    /**
+     * Returns the index of a peasant in the packed array, or -1 if the state has no such peasant.
+     * @param peasantId
+     * @return
+     */
+    private int indexOfPeasant(int peasantId) {
+    	for (int i = 0; i < peasants.length; i++) {
+    		if (PackedPeasant.getId(peasants[i]) == peasantId) {
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+    
+    /**
+     * Returns the 64-bit fingerprint of this state. Equal states always have equal fingerprints.
+     * @return
+     */
+    public long getFingerprint() {
+    	return this.fingerprint;
+    }
+    
+    /**
+     * Computes the fingerprint from scratch. Only the initial state needs this; children update the
+     * fingerprint they inherit as actions are applied.
+     * @return
+     */
+    private long computeFingerprint() {
+    	long key = Zobrist.key(Zobrist.GOLD, 0, currentGold) ^ Zobrist.key(Zobrist.WOOD, 0, currentWood) ^ Zobrist.key(Zobrist.FOOD, 0, food);
+    	key ^= Zobrist.key(Zobrist.TOWNHALL_FREE, 0, townhallFree) ^ Zobrist.key(Zobrist.GOLD_READY, 0, goldReady);
+    	
+    	for (long peasant : peasants) {
+    		key ^= peasantKey(peasant);
+    	}
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		key ^= Zobrist.key(Zobrist.RESOURCE, problem.getResourceId(resource), resourceAmounts.get(resource));
+    	}
+    	
+    	return key;
+    }
+    
+    /**
+     * Returns a 64-bit key of the state with the times of a temporal search and the used up resources left out, equal
+     * for states that sameSituation accepts. Unlike the fingerprint it is computed from scratch.
+     * @return
+     */
+    public long getSituationKey() {
+    	long key = Zobrist.key(Zobrist.GOLD, 0, currentGold) ^ Zobrist.key(Zobrist.WOOD, 0, currentWood) ^ Zobrist.key(Zobrist.FOOD, 0, food);
+    	
+    	for (long peasant : peasants) {
+    		key ^= peasantKey(PackedPeasant.withBusyUntil(peasant, 0));
+    	}
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		if (resourceAmounts.get(resource) > 0) {
+    			key ^= Zobrist.key(Zobrist.RESOURCE, problem.getResourceId(resource), resourceAmounts.get(resource));
+    		}
+    	}
+    	
+    	return key;
+    }
+    
+    /**
+     * Determines if two states are the same apart from unit ids and the times a temporal search tracks: the same
+     * stock and food, the same peasants with the same cargo in the same cells, and the same resources left. The
+     * states may belong to different problems made from the same map, for example one planned from the start of an
+     * episode and one from partway through it, which no longer lists the resources used up by then.
+     * @param o
+     * @return
+     */
+    public boolean sameSituation(GameState o) {
+    	if (currentGold != o.currentGold || currentWood != o.currentWood || food != o.food || peasants.length != o.peasants.length) {
+    		return false;
+    	}
+    	for (int i = 0; i < peasants.length; i++) {
+    		if (PackedPeasant.withBusyUntil(PackedPeasant.withoutId(peasants[i]), 0) != PackedPeasant.withBusyUntil(PackedPeasant.withoutId(o.peasants[i]), 0)) {
+    			return false;
+    		}
+    	}
+    	
+    	return sameResourcesLeft(o) && o.sameResourcesLeft(this);
+    }
+    
+    /**
+     * Determines if every resource of this state has the same amount left in another, counting resources the other
+     * state's problem doesn't list as used up.
+     * @param o
+     * @return
+     */
+    private boolean sameResourcesLeft(GameState o) {
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		int other = o.problem.getResourceIndex(problem.getResourceId(resource));
+    		
+    		if (resourceAmounts.get(resource) != (other < 0 ? 0 : o.resourceAmounts.get(other))) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Returns a 64-bit key of the set of resources this state has used up. States with the same key have the same
+     * obstacles on the map, so they can share walking distance fields.
+     * @return
+     */
+    public long getDepletionKey() {
+    	return this.depletionKey;
+    }
+    
+    /**
+     * Returns a 64-bit key of what a state can't be better or worse in than another: where the peasants stand and
+     * what they carry, and the resources left. The gold and wood in stock, the food and the times of a temporal
+     * search are left out, so states that may dominate each other (see dominates) have the same key.
+     * @return
+     */
+    public long getConfigurationKey() {
+    	long key = fingerprint ^ Zobrist.key(Zobrist.GOLD, 0, currentGold) ^ Zobrist.key(Zobrist.WOOD, 0, currentWood) ^ Zobrist.key(Zobrist.FOOD, 0, food);
+    	key ^= Zobrist.key(Zobrist.TOWNHALL_FREE, 0, townhallFree) ^ Zobrist.key(Zobrist.GOLD_READY, 0, goldReady);
+    	
+    	if (problem.isTemporal()) {
+    		for (long peasant : peasants) {
+    			key ^= peasantKey(peasant) ^ peasantKey(PackedPeasant.withBusyUntil(peasant, 0));
+    		}
+    	}
+    	return key;
+    }
+    
+    /**
+     * Returns true if this state is at least as good as another in every way: the same peasants in the same cells with
+     * the same cargo and the same resources left, at least as much gold, wood and food, no higher cost, and in a
+     * temporal search every peasant and the townhall free no later and the gold ready no later. Every plan from the
+     * other state then works from this one at no higher cost. The peasant count is part of the comparison, so a
+     * state that spent gold on a peasant is never compared with one that kept it.
+     * @param other
+     * @return
+     */
+    public boolean dominates(GameState other) {
+    	if (currentGold < other.currentGold || currentWood < other.currentWood || food < other.food || getGCost() > other.getGCost()) {
+    		
+    		return false;
+    	}
+    	if (townhallFree > other.townhallFree || goldReady > other.goldReady || peasants.length != other.peasants.length) {
+    		
+    		return false;
+    	}
+    	// Peasants are sorted by cell first and no two share a cell, so equal peasants are in the same slots.
+    	for (int i = 0; i < peasants.length; i++) {
+    		long peasant = peasants[i];
+    		long otherPeasant = other.peasants[i];
+    		
+    		if (PackedPeasant.withoutId(PackedPeasant.withBusyUntil(peasant, 0)) != PackedPeasant.withoutId(PackedPeasant.withBusyUntil(otherPeasant, 0))
+    				|| PackedPeasant.getBusyUntil(peasant) > PackedPeasant.getBusyUntil(otherPeasant)) {
+    			
+    			return false;
+    		}
+    	}
+    	
+    	return resourceAmounts.equals(other.resourceAmounts);
+    }
+    
+    /**
+     * Computes the depletion key from scratch, used in initial setup.
+     * @return
+     */
+    private long computeDepletionKey() {
+    	long key = 0;
+    	
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		if (resourceAmounts.get(resource) <= 0) {
+    			key ^= Zobrist.key(Zobrist.DEPLETED, problem.getResourceId(resource), 0);
+    		}
+    	}
+    	
+    	return key;
+    }
+    
+    /**
+     * Returns the number of steps a peasant needs to walk between two positions, going around the buildings and
+     * resources that are on the map in this state. Falls back to the straight line distance if there is no path.
+     * @param from
+     * @param to
+     * @return
+     */
+    public double getWalkingDistance(Position from, Position to) {
+    	int distance = problem.getDistances().distance(this, problem.getCell(from), problem.getCell(to));
+    	
+    	if (distance == DistanceCache.UNREACHABLE) {
+    		return from.euclideanDistance(to);
+    	}
+    	
+    	return distance;
+    }
+    
+    /**
+     * Used when creating a new peasant to ensure its ID is unique.
+     * @return
+     */
+    public int getLargestPeasantId() {
+    	
+    	int largest = 0;
+    	for (long peasant : peasants) {
+    		if (PackedPeasant.getId(peasant) > largest) {
+    			largest = PackedPeasant.getId(peasant);
+    		}
+    	}
+    	
+    	return largest;
+    }
+    
+    /**
+     * Returns true if the state has a peasant with the given id.
+     * @param peasantId
+     * @return
+     */
+    public boolean hasPeasant(int peasantId) {
+    	return indexOfPeasant(peasantId) >= 0;
+    }
+    
+    /**
+     * Returns true if a peasant stands at the given position.
+     * @param position
+     * @return
+     */
+    public boolean isPeasantAt(Position position) {
+    	int cell = problem.getCell(position);
+    	
+    	for (long peasant : peasants) {
+    		if (PackedPeasant.getCell(peasant) == cell) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * Returns the number of peasants that can still be built before the supply cap is reached.
+     * @return
+     */
+    public int getFood() {
+    	return this.food;
+    }
+    
+    /**
+     * Returns the number of peasants in the state.
+     * @return
+     */
+    public int getPeasantCount() {
+    	return peasants.length;
+    }
+    
+    /**
+     * Returns the position of a peasant.
+     * @param peasantId
+     * @return
+     */
+    public Position getPeasantPosition(int peasantId) {
+    	return problem.getPosition(PackedPeasant.getCell(peasants[indexOfPeasant(peasantId)]));
+    }
+    
+    /**
+     * Returns the amount of cargo a peasant is carrying.
+     * @param peasantId
+     * @return
+     */
+    public int getPeasantCargoAmount(int peasantId) {
+    	return PackedPeasant.getCargoAmount(peasants[indexOfPeasant(peasantId)]);
+    }
+    
+    /**
+     * Returns the type of cargo a peasant is carrying, or null if it carries nothing.
+     * @param peasantId
+     * @return
+     */
+    public ResourceType getPeasantCargoType(int peasantId) {
+    	return PackedPeasant.getCargoType(peasants[indexOfPeasant(peasantId)]);
+    }
+    
+    /**
+     * Returns the amount left in a resource, by its index in the problem's resource table.
+     * @param resource
+     * @return
+     */
+    public int getResourceAmount(int resource) {
+    	return resourceAmounts.get(resource);
+    }
+    
+    /**
+     * Determines if a map location is taken by the townhall, a peasant or a resource that is not used up.
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean isOccupied(int x, int y) {
+    	return isOccupied(problem.getCell(x, y));
+    }
+    
+    /**
+     * Determines if a map cell is taken by the townhall, a peasant or a resource that is not used up.
+     * @param cell
+     * @return
+     */
+    public boolean isOccupied(int cell) {
+    	return PlanningProblem.testBit(occupancy, cell);
+    }
+    
+    /**
+     * Builds Peasant views of the packed peasants. Only meant for plan reconstruction and debugging; the search
+     * itself never needs these objects.
+     * @return
+     */
+    public Map<Integer, Peasant> getPeasants() {
+    	Map<Integer, Peasant> views = new LinkedHashMap<Integer, Peasant>();
+    	
+    	for (long peasant : peasants) {
+    		Peasant view = new Peasant(PackedPeasant.getId(peasant), problem.getPosition(PackedPeasant.getCell(peasant)));
+    		view.setCargoType(PackedPeasant.getCargoType(peasant));
+    		view.addCargo(PackedPeasant.getCargoAmount(peasant));
+    		views.put(view.getID(), view);
+    	}
+    	
+    	return views;
+    }
+    
+    /**
+     * Builds ResourceNode views of the resources that are not used up. Only meant for plan reconstruction and
+     * debugging; the search itself never needs these objects.
+     * @return
+     */
+    public List<ResourceNode> getResources() {
+    	List<ResourceNode> views = new ArrayList<ResourceNode>();
+    	
+    	for (int resource = 0; resource < resourceAmounts.size(); resource++) {
+    		if (resourceAmounts.get(resource) > 0) {
+    			Position position = problem.getResourcePosition(resource);
+    			views.add(new ResourceNode(problem.getResourceNodeType(resource), position.x, position.y, resourceAmounts.get(resource), problem.getResourceId(resource)));
+    		}
+    	}
+    	
+    	return views;
+    }
+
+    /**
+     * This is necessary to use your state in the Java priority queue. See the official priority queue and Comparable
+     * interface documentation to learn how this function should work.
+     *
+     * @param o The other game state to compare
+     * @return 1 if this state costs more than the other, 0 if equal, -1 otherwise
+     */
+    @Override
+    public int compareTo(GameState o) {
+        
+    	if (this.getFunctionalCost() > o.getFunctionalCost()) {
+    		
+    		return 1;
+    	}
+    	
+    	if (this.getFunctionalCost() < o.getFunctionalCost()) {
+    		
+    		return -1;
+    	}
+    	
+        return 0;
+    }
+
+    /**
+     * Looks at all aspects of a game state to determine equality with other state. The fingerprints are compared
+     * first so that unequal states, which is nearly every comparison the closed set makes, are rejected in O(1).
+     *
      * @param o The game state to compare
      * @return True if this state equals the other state, false otherwise.
      */
     @Override
     public boolean equals(Object o) {
-    	GameState compare = (GameState) o;
-    	if (this.getCurrentGold() != compare.getCurrentGold() || this.getCurrentWood() != compare.getCurrentWood()) {
+    	if (this == o) {
+    		
+    		return true;
+    	}
+    	if (!(o instanceof GameState)) {
     		
     		return false;
     	}
-    	if (this.peasants.size() != compare.peasants.size() || this.resources.size() != compare.resources.size()) {
+    	GameState compare = (GameState) o;
+    	if (this.fingerprint != compare.fingerprint) {
     		
     		return false;
     	}
-    	// Look at peasant locations and cargo and determine equality.
-    	for (Peasant peasant1 : this.peasants.values()) {
-    		int numMatches = 0;
+    	if (this.currentGold != compare.currentGold || this.currentWood != compare.currentWood || this.food != compare.food) {
     		
-    		for (Peasant peasant2 : compare.peasants.values()) {
-    			Position p1 = peasant1.getPosition();
-    			Position p2 = peasant2.getPosition();
-    			
-    			// The peasant has an exact match.
-    			if (p1.equals(p2) && peasant1.getCargoAmount() == peasant2.getCargoAmount()) {
-    				
-    				if (peasant1.getCargoType() != null && peasant2.getCargoType() != null) {
-    					if (peasant1.getCargoType().equals(peasant2.getCargoType())) {    				
-        					numMatches++;
-        				}
-    				}
-    				else if (peasant1.getCargoType() == null && peasant2.getCargoType() == null) {
-    					numMatches++;
-    				}
-    			}	
-    		}
-    		// The peasant does not have exactly one match.
-    		if (numMatches != 1) {
-    			
-    			return false;
-    		}
+    		return false;
     	}
-    	// Look at resource locations, resource types, and amounts remaining to determine equality. 
-    	for (ResourceNode resource1 : this.resources) {    		
-    		int numMatches = 0;
+    	if (this.townhallFree != compare.townhallFree || this.goldReady != compare.goldReady) {
     		
-    		for (ResourceNode resource2 : compare.resources) {
-    			Position p1 = getResourcePosition(resource1);
-    			Position p2 = getResourcePosition(resource2);
-    			
-    			// The resource has an exact match.
-    			if (p1.equals(p2) && resource1.getAmountRemaining() == resource2.getAmountRemaining() && resource1.getType().equals(resource2.getType())) {
-    				numMatches++;
-    			}	
-    		}
+    		return false;
+    	}
+    	
+    	if (this.peasants.length != compare.peasants.length) {
     		
-    		// The resource does not have exactly one match.
-    		if (numMatches != 1) {
+    		return false;
+    	}
+    	// Peasants are kept in canonical order, so they compare slot by slot with the ids left out.
+    	for (int i = 0; i < peasants.length; i++) {
+    		if (PackedPeasant.withoutId(this.peasants[i]) != PackedPeasant.withoutId(compare.peasants[i])) {
     			
     			return false;
     		}
     	}
     	
-    	return true;
+    	return this.resourceAmounts.equals(compare.resourceAmounts);
     }
 
     /**
      * This is necessary to use the GameState as a key in a HashSet or HashMap. Remember that if two objects are
      * equal they should hash to the same value.
      *
-     * @return An integer hashcode that is equal for equal states.
+     * @return The fingerprint folded to an int, which is equal for equal states.
      */
     @Override
     public int hashCode() {
-        int hashCode = 0;
-        
-        if (buildPeasants) {
-        	hashCode++;
-        }
-        hashCode += (currentGold * playernum);
-        hashCode += (currentWood * playernum);
-        hashCode *= peasants.size();
-        hashCode *= resources.size();
-        
-        for (Peasant p : peasants.values()) {
-        	hashCode += p.getXPosition();
-        	hashCode += p.getYPosition();
-        }
-        
-        for (ResourceNode resource : resources) {
-        	hashCode += resource.getAmountRemaining();
-        }
-        hashCode += ((int)getFunctionalCost() + 1);
     	
-        return hashCode;
+        return (int) (fingerprint ^ (fingerprint >>> 32));
     }
     
     /**
@@ -519,7 +1558,7 @@ public class GameState implements Comparable<GameState> {
      */
     public int getRequiredGold() {
     	
-    	return this.requiredGold;
+    	return problem.getRequiredGold();
     }
     
     /**
@@ -528,21 +1567,21 @@ public class GameState implements Comparable<GameState> {
      */
     public int getRequiredWood() {
     	
-    	return this.requiredWood;
+    	return problem.getRequiredWood();
     }
     
     /**
-     * Determines if this state still needs a given resource.
-     * @param resourceNode
+     * Determines if this state still needs the type of resource a node yields.
+     * @param resource Index of the resource in the problem's resource table
      * @return
      */
-    public boolean needResource(ResourceNode resourceNode) {
+    public boolean needResource(int resource) {
     	
-    	switch (resourceNode.getResourceType()) {
+    	switch (problem.getResourceType(resource)) {
     	case GOLD:
-    		return currentGold < requiredGold;    		
+    		return currentGold < problem.getRequiredGold();    		
     	case WOOD:
-    		return currentWood < requiredWood;
+    		return currentWood < problem.getRequiredWood();
     	}
     	return true;
     }
@@ -558,13 +1597,43 @@ public class GameState implements Comparable<GameState> {
     }
     
     /**
-     * Get a Position abstraction of a resource's x and y coordinates.
-     * @param resource
+     * Returns the problem this state belongs to.
      * @return
      */
-    public Position getResourcePosition(ResourceNode resource) {
-    	
-    	return new Position(resource.getxPosition(), resource.getyPosition());
+    public PlanningProblem getProblem() {
+    	return this.problem;
+    }
+    
+    /**
+     * Returns the stateview the plan is being made from.
+     * @return
+     */
+    public State.StateView getStateView() {
+    	return problem.getStateView();
+    }
+    
+    /**
+     * Returns the townhall unit.
+     * @return
+     */
+    public UnitView getTownhall() {
+    	return problem.getTownhall();
+    }
+    
+    /**
+     * Returns the width of the map.
+     * @return
+     */
+    public int getXExtent() {
+    	return problem.getXExtent();
+    }
+    
+    /**
+     * Returns the height of the map.
+     * @return
+     */
+    public int getYExtent() {
+    	return problem.getYExtent();
     }
     
     /**
@@ -572,7 +1641,9 @@ public class GameState implements Comparable<GameState> {
      * @param amount
      */
     public void addGold(int amount) {
+    	fingerprint ^= Zobrist.key(Zobrist.GOLD, 0, currentGold);
     	currentGold += amount;
+    	fingerprint ^= Zobrist.key(Zobrist.GOLD, 0, currentGold);
     	grossGold += amount;
     }
     
@@ -581,7 +1652,9 @@ public class GameState implements Comparable<GameState> {
      * @param amount
      */
     public void removeGold(int amount) {
+    	fingerprint ^= Zobrist.key(Zobrist.GOLD, 0, currentGold);
     	currentGold -= amount;
+    	fingerprint ^= Zobrist.key(Zobrist.GOLD, 0, currentGold);
     }
     
     /**
@@ -589,7 +1662,9 @@ public class GameState implements Comparable<GameState> {
      * @param amount
      */
     public void addWood(int amount) {
+    	fingerprint ^= Zobrist.key(Zobrist.WOOD, 0, currentWood);
     	currentWood += amount;
+    	fingerprint ^= Zobrist.key(Zobrist.WOOD, 0, currentWood);
     	grossWood += amount;
     }
     
@@ -606,7 +1681,7 @@ public class GameState implements Comparable<GameState> {
      * @return
      */
     public int getPlayernum() {
-    	return this.playernum;
+    	return problem.getPlayernum();
     }
     
     /**
@@ -621,7 +1696,7 @@ public class GameState implements Comparable<GameState> {
     	builder.append("FCost: " + getFunctionalCost() + "\n");
     	builder.append("Current Gold: " + getCurrentGold() + " | Current Wood: " + getCurrentWood() + "\n");
     	builder.append("Gross Gold: " + grossGold + " | Gross Wood: " + grossWood + "\n");
-    	builder.append("Active Peasants: " + peasants.size() + " | Remaining Resources: " + resources.size() + "\n");
+    	builder.append("Active Peasants: " + peasants.length + " | Remaining Resources: " + getResources().size() + "\n");
     	
     	if (actionHistory != null) {
     		builder.append("Action History: " + actionHistory.toString() + "\n");
@@ -0,0 +1,93 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * Debug check of the heuristic's consistency. Every edge the search expands is tested for
+ * h(n) <= c(n, n') + h(n'), and the edges that break it are counted. A consistent heuristic never reopens a state, so
+ * any violation reported here explains reopen counts in the open list.
+ */
+public class HeuristicChecker {
+
+	private static final double TOLERANCE = 1e-9;
+
+	private long edgeCount;
+	private long violationCount;
+	private double worstViolation;
+	private String worstEdge;
+
+	/**
+	 * Checks the edge from a state to one of its children.
+	 * @param parent The expanded state, with its heuristic already calculated
+	 * @param child The child state
+	 */
+	public void check(GameState parent, GameState child) {
+
+		edgeCount++;
+		double childH = child.heuristic();
+		double violation = parent.hCost - (child.cost + childH);
+
+		if (violation > TOLERANCE) {
+			violationCount++;
+
+			if (violation > worstViolation) {
+				worstViolation = violation;
+				worstEdge = "h=" + parent.hCost + " c=" + child.cost + " h'=" + childH + " via " + child.actionHistory;
+			}
+		}
+	}
+
+	/**
+	 * Adds the edges another checker has checked, such as one of a parallel search's threads.
+	 * @param part
+	 */
+	public void add(HeuristicChecker part) {
+
+		edgeCount += part.edgeCount;
+		violationCount += part.violationCount;
+
+		if (part.worstEdge != null && part.worstViolation > worstViolation) {
+			worstViolation = part.worstViolation;
+			worstEdge = part.worstEdge;
+		}
+	}
+
+	/**
+	 * Returns the number of edges checked.
+	 * @return
+	 */
+	public long getEdgeCount() {
+
+		return edgeCount;
+	}
+
+	/**
+	 * Returns the number of edges where the heuristic dropped by more than the edge cost.
+	 * @return
+	 */
+	public long getViolationCount() {
+
+		return violationCount;
+	}
+
+	/**
+	 * Returns the largest amount by which the heuristic dropped more than an edge cost.
+	 * @return
+	 */
+	public double getWorstViolation() {
+
+		return worstViolation;
+	}
+
+	/**
+	 * Returns a one line summary of the check.
+	 */
+	@Override
+	public String toString() {
+
+		String summary = "Heuristic consistency: " + violationCount + " of " + edgeCount + " edges violated";
+
+		if (worstEdge != null) {
+			summary += ", worst by " + worstViolation + " (" + worstEdge.trim() + ")";
+		}
+		return summary;
+	}
+}
@@ -0,0 +1,259 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Simplified memory-bounded A* (SMA*, Russell 1992). The search keeps its states as a tree of nodes and expands the
+ * frontier in A* order. When the tree holds more nodes than the budget allows, it forgets the worst frontier node:
+ * the one with the highest f, the shallowest on ties. The forgotten node's f is backed up into its parent. Once a
+ * parent has forgotten all its children, it goes back on the frontier with the lowest f it backed up, so that
+ * branch is regenerated only when it is again the most promising one.
+ *
+ * The search returns an optimal plan as long as the budget can hold the path to it, and some plan whenever it can
+ * hold any path to a goal. Tighter budgets cost time instead of memory, since forgotten branches get regenerated,
+ * and on maps with many equally good plans that can take far longer than A*. A weight above 1 inflates the
+ * heuristic as in weighted A*, which keeps the frontier narrow and finds a plan within weight times the optimum.
+ */
+public class MemoryBoundedSearch implements PlanSearch {
+
+	/**
+	 * Rough heap size of one node: the GameState with its peasant, occupancy and resource arrays and its action, plus
+	 * the tree node, its frontier entry and its index entry. Used to turn a memory budget into a node budget.
+	 */
+	public static final int ESTIMATED_NODE_BYTES = 512;
+
+	private final HeuristicChecker checker;
+	private final int maxNodes;
+	private final double weight;
+	private final TreeSet<Node> frontier;
+	// The node holding each state in the tree.
+	private final Map<GameState, Node> index;
+	private final SearchMetrics metrics;
+	private long serial;
+	private long expandedCount;
+	private long forgottenCount;
+	private int peakNodes;
+	// The node whose children are being generated; it must not be forgotten while it has none yet.
+	private Node expanding;
+
+	/**
+	 * A state in the search tree.
+	 */
+	private static class Node {
+
+		final GameState state;
+		final Node parent;
+		final int depth;
+		final long serial;
+		final List<Node> children;
+		double f;
+		// The lowest f of the children forgotten since this node was last expanded.
+		double forgotten;
+
+		Node(GameState state, Node parent, long serial) {
+
+			this.state = state;
+			this.parent = parent;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+			this.serial = serial;
+			this.children = new ArrayList<Node>();
+			this.f = state.fCost;
+			this.forgotten = Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Orders the frontier by f, then deepest first, then oldest first. The lowest entry is expanded next and the
+	 * highest is the first to be forgotten.
+	 */
+	private static final Comparator<Node> FRONTIER_ORDER = new Comparator<Node>() {
+
+		@Override
+		public int compare(Node a, Node b) {
+
+			if (a.f != b.f) {
+
+				return a.f < b.f ? -1 : 1;
+			}
+			if (a.depth != b.depth) {
+
+				return a.depth > b.depth ? -1 : 1;
+			}
+			return a.serial < b.serial ? -1 : (a.serial == b.serial ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Creates a search with the node budget from the given options.
+	 * @param options
+	 */
+	public MemoryBoundedSearch(PlannerOptions options) {
+
+		this.checker = options.isCheckHeuristic() ? new HeuristicChecker() : null;
+		this.maxNodes = Math.max(2, options.getMaxNodes());
+		this.weight = options.getMemoryBoundedWeight();
+		this.frontier = new TreeSet<Node>(FRONTIER_ORDER);
+		this.index = new HashMap<GameState, Node>();
+		this.metrics = new SearchMetrics(options.getSearchSettings());
+	}
+
+	/**
+	 * Searches for the cheapest goal state the node budget allows.
+	 * @param startState The state which is being planned from
+	 * @return The goal state found, or null if there is none within the budget.
+	 */
+	@Override
+	public GameState search(GameState startState) {
+
+		long startTime = System.currentTimeMillis();
+		metrics.start();
+		startState.gCost = 0.0;
+		startState.calculateFunctionalCost(weight);
+		Node root = new Node(startState, null, serial++);
+		frontier.add(root);
+		index.put(startState, root);
+		System.out.println("Planning with at most " + maxNodes + " nodes...");
+
+		while (!frontier.isEmpty()) {
+			long time = SearchMetrics.now();
+			Node best = frontier.pollFirst();
+			metrics.openListTimed(time);
+
+			if (best.f == Double.POSITIVE_INFINITY) {
+				break;
+			}
+			if (best.state.isGoal()) {
+				System.out.println("SUCCESS: Path found with cost " + best.state.getGCost() + " in " + (System.currentTimeMillis() - startTime) + " ms.");
+				metrics.finish(best.state);
+				printStatistics();
+
+				return best.state;
+			}
+			expand(best);
+
+			while (index.size() > maxNodes && frontier.size() > 1) {
+				Node worst = frontier.pollLast();
+				forget(worst, worst.f);
+			}
+			peakNodes = Math.max(peakNodes, index.size());
+			metrics.sizes(frontier.size(), index.size() - frontier.size());
+		}
+		System.out.println("FAILURE: No available path found within " + maxNodes + " nodes.");
+		metrics.finish(null);
+		printStatistics();
+
+		return null;
+	}
+
+	/**
+	 * Generates the children of a frontier node that aren't already in the tree at the same or lower cost, and puts
+	 * them on the frontier.
+	 * @param node
+	 */
+	private void expand(Node node) {
+
+		expandedCount++;
+		expanding = node;
+		node.forgotten = Double.POSITIVE_INFINITY;
+
+		long time = SearchMetrics.now();
+		List<GameState> children = node.state.generateChildren();
+		metrics.expanded(time, children.size());
+
+		for (GameState child : children) {
+			child.gCost = node.state.getGCost() + child.cost;
+
+			if (checker != null) {
+				checker.check(node.state, child);
+			}
+			Node known = index.get(child);
+
+			if (known != null) {
+
+				// Only a cheaper path to a frontier node replaces it. With a consistent heuristic an expanded node
+				// already has its best path, and with a weight the plan stays within the weight's bound anyway.
+				if (child.getGCost() >= known.state.getGCost() || !frontier.contains(known)) {
+					metrics.duplicate();
+					continue;
+				}
+				time = SearchMetrics.now();
+				frontier.remove(known);
+				metrics.openListTimed(time);
+				forget(known, Double.POSITIVE_INFINITY);
+			}
+			child.setAstarParent(node.state);
+			time = SearchMetrics.now();
+			child.calculateFunctionalCost(weight);
+			metrics.heuristicTimed(time);
+			Node childNode = new Node(child, node, serial++);
+			// Pathmax: a child can't promise less than its parent did.
+			childNode.f = Math.max(childNode.f, node.f);
+			node.children.add(childNode);
+			index.put(child, childNode);
+			time = SearchMetrics.now();
+			frontier.add(childNode);
+			metrics.openListTimed(time);
+		}
+		expanding = null;
+
+		if (node.children.isEmpty()) {
+			forget(node, Double.POSITIVE_INFINITY);
+		}
+	}
+
+	/**
+	 * Removes a leaf from the tree and backs its f up into its parent. A parent left without children goes back on
+	 * the frontier with the lowest f it backed up, or is removed as well if none of its children could lead anywhere.
+	 * @param leaf A node with no children that is not on the frontier
+	 * @param backedUp The f to back up, infinity if the leaf leads nowhere
+	 */
+	private void forget(Node leaf, double backedUp) {
+
+		if (index.get(leaf.state) == leaf) {
+			index.remove(leaf.state);
+		}
+		forgottenCount++;
+		Node parent = leaf.parent;
+
+		if (parent == null) {
+			return;
+		}
+		parent.children.remove(leaf);
+		parent.forgotten = Math.min(parent.forgotten, backedUp);
+
+		if (parent.children.isEmpty() && parent != expanding) {
+
+			if (parent.forgotten == Double.POSITIVE_INFINITY) {
+				forget(parent, Double.POSITIVE_INFINITY);
+			}
+			else {
+				parent.f = Math.max(parent.f, parent.forgotten);
+				frontier.add(parent);
+			}
+		}
+	}
+
+	@Override
+	public SearchMetrics getMetrics() {
+
+		return metrics;
+	}
+
+	/**
+	 * Prints how much work the search did and how much it had to forget.
+	 */
+	private void printStatistics() {
+
+		System.out.println("SMA*: " + expandedCount + " expanded, " + forgottenCount + " forgotten, peak " + peakNodes + " of " + maxNodes + " nodes.");
+		System.out.println(metrics);
+
+		if (checker != null) {
+			System.out.println(checker);
+		}
+	}
+}
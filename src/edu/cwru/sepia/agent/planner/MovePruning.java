@@ -0,0 +1,90 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * Policies that cut down the successors GameState.generateChildren creates for the peasants. Without them a peasant
+ * carrying cargo gets a move to every free cell next to the townhall, and an empty peasant gets a trip to every
+ * resource still needed (a move to every free cell next to it when the macro action is off), which on a map with many
+ * trees gives hundreds of children per state that differ in little but the cell.
+ *
+ *   nearestCell       moves only to the free cell next to a target that is the shortest walk away
+ *   nearestResources  only the k resources of each type that are the shortest walk away; 0 keeps them all
+ *   skipTargeted      leaves out a resource another empty peasant already stands next to, unless that leaves none
+ *
+ * A pruned search only looks at part of the state space, so its plan is only optimal within that part; the costs
+ * the policies lead to on the scenarios are listed in PlannerOptions.
+ */
+public class MovePruning {
+
+	/** No pruning: every successor is generated. */
+	public static final MovePruning NONE = new MovePruning(false, 0, false);
+
+	private final boolean nearestCell;
+	private final int nearestResources;
+	private final boolean skipTargeted;
+
+	/**
+	 * Creates a set of policies.
+	 * @param nearestCell
+	 * @param nearestResources
+	 * @param skipTargeted
+	 */
+	public MovePruning(boolean nearestCell, int nearestResources, boolean skipTargeted) {
+
+		this.nearestCell = nearestCell;
+		this.nearestResources = nearestResources;
+		this.skipTargeted = skipTargeted;
+	}
+
+	/**
+	 * Returns true if moves only go to the nearest free cell next to their target.
+	 * @return
+	 */
+	public boolean isNearestCell() {
+
+		return nearestCell;
+	}
+
+	/**
+	 * Returns how many of the nearest resources of each type an empty peasant may go to, 0 for all of them.
+	 * @return
+	 */
+	public int getNearestResources() {
+
+		return nearestResources;
+	}
+
+	/**
+	 * Returns true if an empty peasant leaves out the resources another empty peasant stands next to.
+	 * @return
+	 */
+	public boolean isSkipTargeted() {
+
+		return skipTargeted;
+	}
+
+	/**
+	 * Returns true if any policy is on.
+	 * @return
+	 */
+	public boolean isActive() {
+
+		return nearestCell || nearestResources > 0 || skipTargeted;
+	}
+
+	/**
+	 * @return The policies that are on, as planner options.
+	 */
+	@Override
+	public String toString() {
+
+		String settings = nearestCell ? "moveTargets=nearest" : "moveTargets=all";
+
+		if (nearestResources > 0) {
+			settings += " nearestResources=" + nearestResources;
+		}
+		if (skipTargeted) {
+			settings += " skipTargeted=true";
+		}
+		return settings;
+	}
+}
@@ -0,0 +1,259 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The open list used by the A* search. It is an indexed binary min-heap ordered by functional cost, where every
+ * entry is also indexed by its state (GameState equals/hashCode) so that membership checks are O(1) and a cheaper
+ * path to a state already on the list can be applied in place with an O(log n) decrease-key instead of a linear
+ * remove and re-add.
+ *
+ * Ties on functional cost are broken in favour of the deeper state (larger gCost), which keeps the search moving
+ * towards the goal when many states share the same f.
+ */
+public class OpenList {
+
+	private final List<GameState> heap;
+	private final Map<GameState, Integer> index;
+	private int decreaseKeyCount;
+	private int reopenCount;
+
+	/**
+	 * Creates an empty open list.
+	 */
+	public OpenList() {
+
+		this.heap = new ArrayList<GameState>();
+		this.index = new HashMap<GameState, Integer>();
+	}
+
+	/**
+	 * Adds a state that is not yet on the open list.
+	 * @param state
+	 */
+	public void add(GameState state) {
+
+		heap.add(state);
+		index.put(state, heap.size() - 1);
+		siftUp(heap.size() - 1);
+	}
+
+	/**
+	 * Adds a state that had already been closed but was reached again through a cheaper path.
+	 * @param state
+	 */
+	public void reopen(GameState state) {
+
+		reopenCount++;
+		add(state);
+	}
+
+	/**
+	 * Removes and returns the state with the lowest functional cost.
+	 * @return
+	 */
+	public GameState poll() {
+
+		if (heap.isEmpty()) {
+
+			return null;
+		}
+		GameState lowest = heap.get(0);
+		GameState last = heap.remove(heap.size() - 1);
+		index.remove(lowest);
+
+		if (!heap.isEmpty()) {
+			heap.set(0, last);
+			index.put(last, 0);
+			siftDown(0);
+		}
+
+		return lowest;
+	}
+
+	/**
+	 * Returns the state with the lowest functional cost without removing it.
+	 * @return
+	 */
+	public GameState peek() {
+
+		return heap.isEmpty() ? null : heap.get(0);
+	}
+
+	/**
+	 * Determines if a state equal to the given state is on the open list.
+	 * @param state
+	 * @return
+	 */
+	public boolean contains(GameState state) {
+
+		return index.containsKey(state);
+	}
+
+	/**
+	 * Returns the instance on the open list that is equal to the given state, or null if there is none.
+	 * @param state
+	 * @return
+	 */
+	public GameState get(GameState state) {
+
+		Integer position = index.get(state);
+
+		return position == null ? null : heap.get(position);
+	}
+
+	/**
+	 * Replaces the entry equal to the given state with the given (cheaper) instance and restores the heap order.
+	 * @param state
+	 */
+	public void decreaseKey(GameState state) {
+
+		Integer position = index.get(state);
+
+		if (position == null) {
+			add(state);
+			return;
+		}
+		index.remove(heap.get(position));
+		heap.set(position, state);
+		index.put(state, position);
+		decreaseKeyCount++;
+		siftUp(position);
+	}
+
+	/**
+	 * Returns the states on the open list, in no particular order.
+	 * @return
+	 */
+	public List<GameState> getStates() {
+
+		return Collections.unmodifiableList(heap);
+	}
+
+	/**
+	 * Removes every state from the open list and returns them, for putting them back under new functional costs.
+	 * @return
+	 */
+	public List<GameState> drain() {
+
+		List<GameState> states = new ArrayList<GameState>(heap);
+		heap.clear();
+		index.clear();
+
+		return states;
+	}
+
+	/**
+	 * Returns true if there are no states on the open list.
+	 * @return
+	 */
+	public boolean isEmpty() {
+
+		return heap.isEmpty();
+	}
+
+	/**
+	 * Returns the number of states on the open list.
+	 * @return
+	 */
+	public int size() {
+
+		return heap.size();
+	}
+
+	/**
+	 * Returns the number of times a cheaper path was applied to a state already on the open list.
+	 * @return
+	 */
+	public int getDecreaseKeyCount() {
+
+		return decreaseKeyCount;
+	}
+
+	/**
+	 * Returns the number of times a closed state was put back on the open list.
+	 * @return
+	 */
+	public int getReopenCount() {
+
+		return reopenCount;
+	}
+
+	/**
+	 * Moves the entry at the given position towards the root until its parent is no larger.
+	 * @param position
+	 */
+	private void siftUp(int position) {
+
+		GameState state = heap.get(position);
+
+		while (position > 0) {
+			int parent = (position - 1) / 2;
+			GameState parentState = heap.get(parent);
+
+			if (compare(state, parentState) >= 0) {
+				break;
+			}
+			heap.set(position, parentState);
+			index.put(parentState, position);
+			position = parent;
+		}
+		heap.set(position, state);
+		index.put(state, position);
+	}
+
+	/**
+	 * Moves the entry at the given position towards the leaves until neither child is smaller.
+	 * @param position
+	 */
+	private void siftDown(int position) {
+
+		GameState state = heap.get(position);
+		int size = heap.size();
+
+		while (true) {
+			int child = 2 * position + 1;
+
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && compare(heap.get(child + 1), heap.get(child)) < 0) {
+				child++;
+			}
+			GameState childState = heap.get(child);
+
+			if (compare(childState, state) >= 0) {
+				break;
+			}
+			heap.set(position, childState);
+			index.put(childState, position);
+			position = child;
+		}
+		heap.set(position, state);
+		index.put(state, position);
+	}
+
+	/**
+	 * Orders states by the functional cost stored on them, preferring the deeper state on ties.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private int compare(GameState a, GameState b) {
+
+		if (a.fCost != b.fCost) {
+
+			return a.fCost < b.fCost ? -1 : 1;
+		}
+		if (a.gCost != b.gCost) {
+
+			return a.gCost > b.gCost ? -1 : 1;
+		}
+
+		return 0;
+	}
+}
@@ -15,8 +15,13 @@ import edu.cwru.sepia.util.Direction;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
@@ -28,27 +33,49 @@ import java.util.Stack;
  */
 public class PEAgent extends Agent {
 
-    // The plan being executed
-    private Stack<StripsAction> plan = null;
+    // Times in a row a unit's step may fail before the plan is taken to no longer fit the game
+    public static final int MAX_FAILURES = 5;
+    // Repairs in a row that may find no plan before the old plan is left to run without further repairs
+    public static final int MAX_FAILED_REPAIRS = 3;
 
-    // maps the real unit Ids to the plan's unit ids
+    // The plan being executed, as one queue of steps per unit
+    private PlanSchedule schedule;
+
+    // maps the plan's unit ids to the real unit Ids
     // when you're planning you won't know the true unit IDs that sepia assigns. So you'll use placeholders (1, 2, 3).
     // this maps those placeholders to the actual unit IDs.
     private Map<Integer, Integer> peasantIdMap;
+    // The step each busy unit is carrying out, by real unit id
+    private Map<Integer, PartialOrderPlan.Step> running;
+    // The plan ids of built peasants whose real id isn't known yet, in the order they were built
+    private LinkedList<Integer> unmappedPeasants;
+    // Failures in a row of the step each unit is carrying out, by real unit id
+    private Map<Integer, Integer> failures;
+    // Set when the plan no longer fits the game, until it has been repaired
+    private boolean diverged;
+    // Repairs in a row that found no plan, and the state of the game the last of them was tried in
+    private int failedRepairs;
+    private GameState failedRepairState;
+    private PlanRepair planRepair;
     private int townhallId;
     private int peasantTemplateId;
 
     /**
      * Constructs a new PEAgent based on a player number and plan.
      * @param playernum
-     * @param plan
+     * @param plan The plan, deordered so that independent steps of different units can run together
+     * @param options The planner's options, for searching again when the plan has to be repaired
      */
-    public PEAgent(int playernum, Stack<StripsAction> plan) {
+    public PEAgent(int playernum, PartialOrderPlan plan, PlannerOptions options) {
         super(playernum);
         peasantIdMap = new HashMap<Integer, Integer>();
-        this.plan = plan;
+        running = new HashMap<Integer, PartialOrderPlan.Step>();
+        unmappedPeasants = new LinkedList<Integer>();
+        failures = new HashMap<Integer, Integer>();
+        planRepair = new PlanRepair(options);
+        this.schedule = new PlanSchedule(plan);
         
-        System.out.println("Plan ready for execution!");
+        System.out.println("Plan ready for execution! " + plan.getSteps().size() + " steps for " + schedule.getUnitIds().size() + " units.");
     }
 
     @Override
@@ -107,73 +134,321 @@ public class PEAgent extends Agent {
      * 1 then the action is still in progress.
      *
      * Also remember to check your plan's preconditions before executing!
+     *
+     * The plan runs as one queue per unit (see PlanSchedule): each turn, every unit that has finished its last step
+     * gets its next one as soon as the steps of other units it waits for are done (or started, for the cells a move
+     * leaves), so peasants work side by side.
+     *
+     * Before a step is issued its preconditions are checked against the state of the game. When one doesn't hold, a
+     * step keeps failing or the plan runs out before the goal is reached, the plan no longer fits the game and the rest of it is repaired (see PlanRepair) as soon
+     * as only moves are running, which can simply be issued again; until then the steps that still fit go on. A
+     * repair that finds no plan is only tried again once the game has changed (see shouldRepair).
      */
     @Override
     public Map<Integer, Action> middleStep(State.StateView stateView, History.HistoryView historyView) {
         Map<Integer, Action> executionPlan = new LinkedHashMap<Integer, Action>();
-		
-        // If it is the first turn we need to put the first action on the stack.
-		if (stateView.getTurnNumber() == 0) {
-			StripsAction nextAction = plan.pop();
-			executionPlan.put(nextAction.getUnitId(), createSepiaAction(nextAction));
-		}
-		// If it is not the first turn and we still have moves left, look at the actions of the past state.
-		else if (!plan.isEmpty()) {    			
-			Map<Integer, ActionResult> actionResults = historyView.getCommandFeedback(playernum, stateView.getTurnNumber() - 1);
-			
-			for (ActionResult result : actionResults.values()) {
-				// The last action has completed so we can add the next action.
-				if (result.getFeedback() != ActionFeedback.INCOMPLETE) {
-					StripsAction nextAction = plan.pop();   
-					
-					// =======================================
-					// We could not figure out how to map the ID of a newly created peasant so that
-					// a new action could be associated with that peasant.  It is manually performed here
-					// and seems to work well.  We found the IDs associated by looking at the current stateview.
-					if (nextAction.getUnitId() == 2) {
-		    			nextAction.setUnitId(10);
-		    		}
-					if (nextAction.getUnitId() == 3) {
-						nextAction.setUnitId(11);
-					}
-					// =======================================
-					executionPlan.put(nextAction.getUnitId(), createSepiaAction(nextAction));					
-				}
-    		}
-		}
+        
+        if (stateView.getTurnNumber() > 0) {
+        	collectFeedback(stateView, historyView.getCommandFeedback(playernum, stateView.getTurnNumber() - 1), executionPlan);
+        }
+        mapNewPeasants(stateView);
+        Map<Integer, PartialOrderPlan.Step> ready = getReadySteps();
+        GameState liveState = null;
+        
+        if (!ready.isEmpty() || diverged || running.isEmpty()) {
+        	liveState = createLiveState(stateView);
+        }
+        
+        if (running.isEmpty() && schedule.isDone() && !liveState.isGoal()) {
+        	System.err.println("The plan is done but the goal isn't reached");
+        	diverged = true;
+        }
+        
+        for (Iterator<Map.Entry<Integer, PartialOrderPlan.Step>> it = ready.entrySet().iterator(); it.hasNext();) {
+        	Map.Entry<Integer, PartialOrderPlan.Step> entry = it.next();
+        	
+        	if (!preconditionsHold(entry.getValue(), entry.getKey(), liveState)) {
+        		System.err.println("Step " + entry.getValue() + " of unit " + entry.getKey() + " no longer fits the game");
+        		diverged = true;
+        		it.remove();
+        	}
+        }
+        
+        if (diverged && onlyMovesRunning()) {
+        	diverged = false;
+        	
+        	if (shouldRepair(liveState) && repairPlan(liveState)) {
+        		executionPlan.clear();
+        		ready = getReadySteps();
+        	}
+        }
+        
+        // Steps issued now count as started from the next turn on, so a step waiting for one of them to start is
+        // issued a turn later.
+        for (Map.Entry<Integer, PartialOrderPlan.Step> entry : ready.entrySet()) {
+        	running.put(entry.getKey(), entry.getValue());
+        	executionPlan.put(entry.getKey(), createSepiaAction(entry.getValue().getAction(), entry.getKey()));
+        }
+        
+        for (PartialOrderPlan.Step step : ready.values()) {
+        	step.markStarted();
+        }
     	return executionPlan;
     }
+    
+    /**
+     * Returns the next step of every idle unit that no longer waits for another unit.
+     * @return The steps by real unit id
+     */
+    private Map<Integer, PartialOrderPlan.Step> getReadySteps() {
+    	
+    	Map<Integer, PartialOrderPlan.Step> ready = new LinkedHashMap<Integer, PartialOrderPlan.Step>();
+    	
+    	for (int planId : schedule.getUnitIds()) {
+    		Integer unitId = getRealId(planId);
+    		
+    		if (unitId == null || running.containsKey(unitId)) {
+    			continue;
+    		}
+    		PartialOrderPlan.Step next = schedule.peek(planId);
+    		
+    		if (next != null && next.isReady()) {
+    			ready.put(unitId, next);
+    		}
+    	}
+    	return ready;
+    }
+    
+    /**
+     * Reads the state of the game into a GameState with the real unit ids. It is built on the problem of the plan's
+     * start state, so a repair plans for the same goal, objective and successors as the planner did, and the map
+     * tables and walking distances aren't worked out again every turn.
+     * @param stateView
+     * @return
+     */
+    private GameState createLiveState(State.StateView stateView) {
+    	
+    	return new GameState(stateView, schedule.getPlan().getStartState());
+    }
+    
+    /**
+     * Returns true if a step's preconditions hold in the state of the game when its unit carries it out.
+     * @param step
+     * @param unitId The real id of the unit
+     * @param liveState
+     * @return
+     */
+    private boolean preconditionsHold(PartialOrderPlan.Step step, int unitId, GameState liveState) {
+    	
+    	if (PlanSchedule.isBuild(step)) {
+    		return step.getAction().preconditionsMet(liveState);
+    	}
+    	return step.getAction().copyWithUnitId(unitId).preconditionsMet(liveState);
+    }
+    
+    /**
+     * Returns true if every step being carried out is a move. Those can be dropped for a repaired plan, as moving
+     * leaves nothing half done, while a harvest, deposit or build may already have changed the game without its
+     * result being in yet.
+     * @return
+     */
+    private boolean onlyMovesRunning() {
+    	
+    	for (PartialOrderPlan.Step step : running.values()) {
+    		
+    		if (!(step.getAction() instanceof MoveAction)) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Returns true if the plan should be repaired in the state of the game. A repair that found no plan isn't tried
+     * again until the game has changed, and after MAX_FAILED_REPAIRS of them in a row none are tried at all, so a
+     * step that keeps failing doesn't start a search every turn.
+     * @param liveState
+     * @return
+     */
+    private boolean shouldRepair(GameState liveState) {
+    	
+    	return failedRepairs < MAX_FAILED_REPAIRS && !liveState.equals(failedRepairState);
+    }
+    
+    /**
+     * Repairs the rest of the plan from the state of the game and schedules it in place of the old one. The repaired
+     * plan uses the real peasant ids, so the peasants it doesn't build map to themselves.
+     * @param liveState
+     * @return false if no plan was found, in which case the old one goes on
+     */
+    private boolean repairPlan(GameState liveState) {
+    	
+    	Stack<StripsAction> plan = planRepair.repair(schedule.getPlan(), liveState, peasantIdMap);
+    	
+    	if (plan == null) {
+    		failedRepairs++;
+    		failedRepairState = liveState;
+    		
+    		if (failedRepairs < MAX_FAILED_REPAIRS) {
+    			System.err.println("Plan repair found no plan, going on with the old one until the game changes");
+    		}
+    		else {
+    			System.err.println("Plan repair found no plan " + failedRepairs + " times in a row, going on with the old one without repairing it again");
+    		}
+    		return false;
+    	}
+    	failedRepairs = 0;
+    	failedRepairState = null;
+    	PartialOrderPlan repaired = new PartialOrderPlan(plan, liveState);
+    	schedule = new PlanSchedule(repaired);
+    	peasantIdMap.clear();
+    	
+    	for (int peasantId : liveState.getPeasants().keySet()) {
+    		peasantIdMap.put(peasantId, peasantId);
+    	}
+    	unmappedPeasants.clear();
+    	running.clear();
+    	failures.clear();
+    	System.out.println("Repaired plan: " + repaired.getSteps().size() + " steps, makespan " + repaired.getMakespan() + ".");
+    	
+    	return true;
+    }
+    
+    /**
+     * Goes through the results of the actions issued so far. Completed steps are marked done, freeing their unit for
+     * its next step. A step that failed or got stuck is issued again, and so is a move that completed short of its
+     * destination, which SEPIA does when the destination is taken as the unit gets there. A step that fails
+     * MAX_FAILURES times in a row marks the plan as no longer fitting the game.
+     * @param stateView
+     * @param actionResults The command feedback of the previous turn
+     * @param executionPlan Where the actions to issue this turn are collected
+     */
+    private void collectFeedback(State.StateView stateView, Map<Integer, ActionResult> actionResults, Map<Integer, Action> executionPlan) {
+    	
+    	for (Map.Entry<Integer, ActionResult> entry : actionResults.entrySet()) {
+    		int unitId = entry.getKey();
+    		PartialOrderPlan.Step step = running.get(unitId);
+    		
+    		if (step == null) {
+    			continue;
+    		}
+    		ActionFeedback feedback = entry.getValue().getFeedback();
+    		
+    		if (feedback == ActionFeedback.COMPLETED && !reachedDestination(stateView, unitId, step)) {
+    			executionPlan.put(unitId, createSepiaAction(step.getAction(), unitId));
+    		}
+    		else if (feedback == ActionFeedback.COMPLETED) {
+    			step.markDone();
+    			running.remove(unitId);
+    			failures.remove(unitId);
+    			
+    			if (PlanSchedule.isBuild(step)) {
+    				unmappedPeasants.add(((BuildPeasant) step.getAction()).getPeasantId());
+    			}
+    		}
+    		else if (feedback != ActionFeedback.INCOMPLETE) {
+    			System.err.println("Step " + step + " of unit " + unitId + " returned " + feedback + ", issuing it again");
+    			executionPlan.put(unitId, createSepiaAction(step.getAction(), unitId));
+    			Integer failed = failures.get(unitId);
+    			failures.put(unitId, failed == null ? 1 : failed + 1);
+    			
+    			if (failures.get(unitId) >= MAX_FAILURES) {
+    				diverged = true;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Returns false if the step is a move and the unit isn't standing on its destination.
+     * @param stateView
+     * @param unitId
+     * @param step
+     * @return
+     */
+    private boolean reachedDestination(State.StateView stateView, int unitId, PartialOrderPlan.Step step) {
+    	
+    	if (!(step.getAction() instanceof MoveAction)) {
+    		return true;
+    	}
+    	UnitView unit = stateView.getUnit(unitId);
+    	Position destination = ((MoveAction) step.getAction()).getDestination();
+    	
+    	return unit == null || (unit.getXPosition() == destination.x && unit.getYPosition() == destination.y);
+    }
+    
+    /**
+     * Gives the peasants the plan builds their real ids. SEPIA picks the id of a new unit, so every peasant in the
+     * state without a plan id yet goes to the oldest completed BuildPeasant still waiting for its peasant.
+     * @param stateView
+     */
+    private void mapNewPeasants(State.StateView stateView) {
+    	
+    	if (unmappedPeasants.isEmpty()) {
+    		return;
+    	}
+    	List<Integer> newPeasants = new ArrayList<Integer>();
+    	
+    	for (int unitId : stateView.getUnitIds(playernum)) {
+    		
+    		if (stateView.getUnit(unitId).getTemplateView().getName().toLowerCase().equals("peasant") && !peasantIdMap.containsValue(unitId)) {
+    			newPeasants.add(unitId);
+    		}
+    	}
+    	Collections.sort(newPeasants);
+    	
+    	for (int unitId : newPeasants) {
+    		
+    		if (unmappedPeasants.isEmpty()) {
+    			break;
+    		}
+    		peasantIdMap.put(unmappedPeasants.removeFirst(), unitId);
+    	}
+    }
+    
+    /**
+     * Returns the real id of a unit the plan refers to, or null if it's a peasant that hasn't been built yet.
+     * @param planId
+     * @return
+     */
+    private Integer getRealId(int planId) {
+    	
+    	if (planId == townhallId) {
+    		return townhallId;
+    	}
+    	return peasantIdMap.get(planId);
+    }
 
     /**
      * Returns a SEPIA version of the specified Strips Action.
      * @param action StripsAction
+     * @param unitId The real id of the unit carrying it out
      * @return SEPIA representation of same action
      */
-    private Action createSepiaAction(StripsAction action) {
+    private Action createSepiaAction(StripsAction action, int unitId) {
     	
     	// Deal with a MoveAction
     	if (action instanceof MoveAction) {
     		MoveAction moveAction = (MoveAction) action;
     		Position destination = moveAction.getDestination();
     		
-    		return Action.createCompoundMove(moveAction.getUnitId(), destination.x, destination.y);
+    		return Action.createCompoundMove(unitId, destination.x, destination.y);
     	}
     	// Deals with a HarvestAction
     	if (action instanceof HarvestAction) {
     		HarvestAction harvestAction = (HarvestAction) action;    		
     		
-    		return Action.createPrimitiveGather(harvestAction.getUnitId(), harvestAction.getResourceDirection());
+    		return Action.createPrimitiveGather(unitId, harvestAction.getResourceDirection());
     	}
     	// Deals with DepositAction
     	if (action instanceof DepositAction) {
     		DepositAction depositAction = (DepositAction) action;
     		
-    		return Action.createPrimitiveDeposit(depositAction.getUnitId(), depositAction.getTownhallDirection());
+    		return Action.createPrimitiveDeposit(unitId, depositAction.getTownhallDirection());
     	}
     	// Deals with building a peasant
     	if (action instanceof BuildPeasant) {
-    		BuildPeasant buildPeasant = (BuildPeasant) action;
-    		return Action.createPrimitiveProduction(buildPeasant.getUnitId(), buildPeasant.getPeasantTemplateId());
+    		return Action.createPrimitiveProduction(unitId, peasantTemplateId);
     	}
         
     	return null;
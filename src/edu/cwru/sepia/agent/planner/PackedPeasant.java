@@ -0,0 +1,162 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * Helpers for the packed form GameState uses for its peasants. Each peasant is a single long:
+ *
+ *   bits 44-63  map cell (y * xExtent + x)
+ *   bits 42-43  cargo type (0 nothing, 1 gold, 2 wood)
+ *   bits 34-41  cargo amount
+ *   bits 18-33  busy until: the time the peasant finishes its last action, only tracked when planning for makespan
+ *   bits  0-17  unit id
+ *
+ * Keeping a peasant in one primitive means a state's peasants are a single long[] that can be copied, compared and
+ * hashed without touching any objects.
+ */
+public final class PackedPeasant {
+
+	private static final int CELL_SHIFT = 44;
+	private static final int TYPE_SHIFT = 42;
+	private static final int AMOUNT_SHIFT = 34;
+	private static final int TIME_SHIFT = 18;
+	private static final long CELL_MASK = 0xfffffL;
+	private static final long TYPE_MASK = 0x3L;
+	private static final long AMOUNT_MASK = 0xffL;
+	private static final long TIME_MASK = 0xffffL;
+	private static final long ID_MASK = 0x3ffffL;
+
+	/** The latest busy until time a packed peasant can hold. */
+	public static final int MAX_TIME = (int) TIME_MASK;
+
+	private PackedPeasant() {}
+
+	/**
+	 * Packs a peasant into a long.
+	 * @param id
+	 * @param cell
+	 * @param cargoType null when the peasant carries nothing
+	 * @param cargoAmount
+	 * @return
+	 */
+	public static long pack(int id, int cell, ResourceType cargoType, int cargoAmount) {
+
+		return ((long) cell << CELL_SHIFT) | ((long) typeCode(cargoType) << TYPE_SHIFT) | (((long) cargoAmount & AMOUNT_MASK) << AMOUNT_SHIFT) | (id & ID_MASK);
+	}
+
+	/**
+	 * Returns the unit id of a packed peasant.
+	 * @param peasant
+	 * @return
+	 */
+	public static int getId(long peasant) {
+
+		return (int) (peasant & ID_MASK);
+	}
+
+	/**
+	 * Returns the map cell of a packed peasant.
+	 * @param peasant
+	 * @return
+	 */
+	public static int getCell(long peasant) {
+
+		return (int) ((peasant >>> CELL_SHIFT) & CELL_MASK);
+	}
+
+	/**
+	 * Returns the cargo type of a packed peasant, or null if it carries nothing.
+	 * @param peasant
+	 * @return
+	 */
+	public static ResourceType getCargoType(long peasant) {
+
+		switch ((int) ((peasant >>> TYPE_SHIFT) & TYPE_MASK)) {
+		case 1:
+			return ResourceType.GOLD;
+		case 2:
+			return ResourceType.WOOD;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the cargo amount of a packed peasant.
+	 * @param peasant
+	 * @return
+	 */
+	public static int getCargoAmount(long peasant) {
+
+		return (int) ((peasant >>> AMOUNT_SHIFT) & AMOUNT_MASK);
+	}
+
+	/**
+	 * Returns the time a packed peasant finishes its last action.
+	 * @param peasant
+	 * @return
+	 */
+	public static int getBusyUntil(long peasant) {
+
+		return (int) ((peasant >>> TIME_SHIFT) & TIME_MASK);
+	}
+
+	/**
+	 * Returns the packed peasant moved to another cell.
+	 * @param peasant
+	 * @param cell
+	 * @return
+	 */
+	public static long withCell(long peasant, int cell) {
+
+		return (peasant & ~(CELL_MASK << CELL_SHIFT)) | ((long) cell << CELL_SHIFT);
+	}
+
+	/**
+	 * Returns the packed peasant carrying the given cargo.
+	 * @param peasant
+	 * @param cargoType null for no cargo
+	 * @param cargoAmount
+	 * @return
+	 */
+	public static long withCargo(long peasant, ResourceType cargoType, int cargoAmount) {
+
+		long cargo = ((long) typeCode(cargoType) << TYPE_SHIFT) | (((long) cargoAmount & AMOUNT_MASK) << AMOUNT_SHIFT);
+
+		return (peasant & ~((TYPE_MASK << TYPE_SHIFT) | (AMOUNT_MASK << AMOUNT_SHIFT))) | cargo;
+	}
+
+	/**
+	 * Returns the packed peasant busy until the given time.
+	 * @param peasant
+	 * @param time At most MAX_TIME
+	 * @return
+	 */
+	public static long withBusyUntil(long peasant, int time) {
+
+		return (peasant & ~(TIME_MASK << TIME_SHIFT)) | (((long) time & TIME_MASK) << TIME_SHIFT);
+	}
+
+	/**
+	 * Returns the packed peasant with its id cleared, for comparing peasants regardless of which unit they are.
+	 * @param peasant
+	 * @return
+	 */
+	public static long withoutId(long peasant) {
+
+		return peasant & ~ID_MASK;
+	}
+
+	/**
+	 * Returns the 2 bit code of a cargo type.
+	 * @param type
+	 * @return
+	 */
+	private static int typeCode(ResourceType type) {
+
+		if (type == null) {
+
+			return 0;
+		}
+		return type == ResourceType.GOLD ? 1 : 2;
+	}
+}
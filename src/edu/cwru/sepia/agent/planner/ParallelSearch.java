@@ -0,0 +1,372 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash-distributed A* (HDA*, Kishimoto, Fukunaga and Botea) over several threads.
+ *
+ * Every state belongs to one worker thread, picked by its hash code, which is the state's Zobrist fingerprint folded
+ * to an int. A worker has its own open list, closed set and table of the cheapest instance seen of each of its
+ * states, so none of them are shared or locked. A worker expands the best state of its own open list and sends each
+ * child to the mailbox of the worker that owns it, a lock-free queue the owner drains between expansions; the owner
+ * then does the duplicate detection, the heuristic and the open list insertion, as AnytimeSearch does for a single
+ * thread. The only shared state is the incumbent, the cheapest goal found so far.
+ *
+ * A worker expands while its best open state has a lower f than the incumbent's cost, and waits for mail otherwise.
+ * The search ends when no worker has anything to expand and no child is in a mailbox. This is detected with one
+ * counter of the running workers plus the children in flight: a child is counted before it is sent and uncounted
+ * after its owner has filed it, and a worker uncounts itself only when it stops to wait. Nothing that could still
+ * create work is ever uncounted, so the counter reaches zero exactly when every open state's f is at least the
+ * incumbent's cost. With weight 1 and the admissible heuristic the incumbent is then optimal, and with a weight w
+ * it costs at most w times the optimum, as for weighted A*.
+ */
+public class ParallelSearch implements PlanSearch {
+
+	// How long a waiting worker sleeps before looking at its mailbox and the termination state again.
+	private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final PlannerOptions options;
+	private final double weight;
+	private final SearchMetrics metrics;
+	private Worker[] workers;
+	// Running workers plus children sent but not yet filed by their owner; zero when the search is over.
+	private final AtomicInteger work;
+	private volatile boolean done;
+	private volatile double incumbentCost;
+	private GameState incumbent;
+	private RuntimeException failure;
+	private long startTime;
+
+	/**
+	 * Creates a search with the given options.
+	 * @param options
+	 */
+	public ParallelSearch(PlannerOptions options) {
+
+		this.options = options;
+		this.weight = options.getParallelWeight();
+		this.metrics = new SearchMetrics(options.getSearchSettings());
+		this.work = new AtomicInteger();
+	}
+
+	/**
+	 * Searches for the cheapest goal state within the weight's bound.
+	 * @param startState The state which is being planned from
+	 * @return The goal state found, or null if no plan exists.
+	 */
+	@Override
+	public GameState search(GameState startState) {
+
+		int threads = options.getThreads();
+		startTime = System.currentTimeMillis();
+		metrics.start();
+		done = false;
+		incumbent = null;
+		incumbentCost = Double.POSITIVE_INFINITY;
+		workers = new Worker[threads];
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(i);
+		}
+
+		System.out.println("Planning on " + threads + " threads...");
+
+		// The start state is the first child in flight, and every worker starts out running.
+		startState.gCost = 0.0;
+		work.set(threads + 1);
+		workers[ownerOf(startState)].mailbox.add(startState);
+
+		for (Worker worker : workers) {
+			worker.thread.start();
+		}
+		for (Worker worker : workers) {
+
+			try {
+				worker.thread.join();
+			} catch (InterruptedException e) {
+				done = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+		metrics.finish(incumbent);
+		long expanded = 0;
+
+		for (Worker worker : workers) {
+			metrics.add(worker.metrics);
+			expanded += worker.metrics.getExpanded();
+		}
+
+		if (incumbent == null) {
+			System.out.println("FAILURE: No available path found.");
+		}
+		else {
+			System.out.println("SUCCESS: Path found with cost " + incumbent.getGCost() + " in " + elapsed() + " ms.");
+		}
+		StringBuilder shares = new StringBuilder("Expansions per thread:");
+
+		for (Worker worker : workers) {
+			shares.append(' ').append(worker.metrics.getExpanded());
+		}
+		System.out.println(shares + " (" + Math.round(expanded * 1000.0 / Math.max(1, elapsed())) + " per second).");
+
+		if (options.isCheckHeuristic()) {
+			HeuristicChecker checker = new HeuristicChecker();
+
+			for (Worker worker : workers) {
+				checker.add(worker.checker);
+			}
+			System.out.println(checker);
+		}
+		System.out.println(metrics);
+
+		return incumbent;
+	}
+
+	@Override
+	public SearchMetrics getMetrics() {
+
+		return metrics;
+	}
+
+	/**
+	 * Returns the index of the worker that owns a state.
+	 * @param state
+	 * @return
+	 */
+	private int ownerOf(GameState state) {
+
+		int hash = state.hashCode();
+		hash ^= hash >>> 16;
+
+		return (hash & Integer.MAX_VALUE) % workers.length;
+	}
+
+	/**
+	 * Makes a goal state the incumbent if it is cheaper than the current one.
+	 * @param goal
+	 */
+	private synchronized void offer(GameState goal) {
+
+		if (goal.getGCost() >= incumbentCost) {
+			return;
+		}
+		incumbent = goal;
+		incumbentCost = goal.getGCost();
+	}
+
+	/**
+	 * Stops the search because a worker failed. The first failure is thrown from search.
+	 * @param e
+	 */
+	private synchronized void fail(RuntimeException e) {
+
+		if (failure == null) {
+			failure = e;
+		}
+		stop();
+	}
+
+	/**
+	 * Ends the search and wakes every waiting worker.
+	 */
+	private void stop() {
+
+		done = true;
+
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker.thread);
+		}
+	}
+
+	/**
+	 * Returns the milliseconds since the search started.
+	 * @return
+	 */
+	private long elapsed() {
+
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * One thread of the search and the part of the state space it owns.
+	 */
+	private class Worker implements Runnable {
+
+		private final int index;
+		private final Thread thread;
+		private final ConcurrentLinkedQueue<GameState> mailbox;
+		private final OpenList openSet;
+		// The cheapest instance found so far of every state this worker owns.
+		private final Map<GameState, GameState> seen;
+		private final Set<GameState> closedSet;
+		private final SearchMetrics metrics;
+		// Checks the edges this worker expands, if the heuristic is checked.
+		private final HeuristicChecker checker;
+		private volatile boolean waiting;
+
+		/**
+		 * Creates the worker with the given index.
+		 * @param index
+		 */
+		public Worker(int index) {
+
+			this.index = index;
+			this.thread = new Thread(this, "planner-hda-" + index);
+			this.thread.setDaemon(true);
+			this.mailbox = new ConcurrentLinkedQueue<GameState>();
+			this.openSet = new OpenList();
+			this.seen = new HashMap<GameState, GameState>();
+			this.closedSet = new HashSet<GameState>();
+			this.metrics = new SearchMetrics(options.getSearchSettings());
+			this.checker = options.isCheckHeuristic() ? new HeuristicChecker() : null;
+		}
+
+		@Override
+		public void run() {
+
+			metrics.start();
+
+			try {
+				while (!done) {
+					receiveAll();
+
+					if (!openSet.isEmpty() && openSet.peek().fCost < incumbentCost) {
+						long time = SearchMetrics.now();
+						GameState current = openSet.poll();
+						metrics.openListTimed(time);
+						expand(current);
+					}
+					else if (!waitForMail()) {
+						break;
+					}
+				}
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+			metrics.finish(null);
+		}
+
+		/**
+		 * Generates the children of a state and files or sends each to its owner.
+		 * @param current
+		 */
+		private void expand(GameState current) {
+
+			closedSet.add(current);
+			long time = SearchMetrics.now();
+			List<GameState> children = current.generateChildren();
+			metrics.expanded(time, children.size());
+
+			for (GameState child : children) {
+				child.gCost = current.getGCost() + child.cost;
+
+				if (checker != null) {
+					checker.check(current, child);
+				}
+				// The heuristic is never negative, so the child can't lead to a cheaper goal.
+				if (child.getGCost() >= incumbentCost) {
+					continue;
+				}
+				child.setAstarParent(current);
+				Worker owner = workers[ownerOf(child)];
+
+				if (owner == this) {
+					receive(child);
+				}
+				else {
+					work.incrementAndGet();
+					owner.mailbox.add(child);
+
+					if (owner.waiting) {
+						LockSupport.unpark(owner.thread);
+					}
+				}
+			}
+			metrics.sizes(openSet.size(), closedSet.size());
+		}
+
+		/**
+		 * Files the children other workers have sent.
+		 */
+		private void receiveAll() {
+
+			GameState child;
+
+			while ((child = mailbox.poll()) != null) {
+				receive(child);
+				work.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Files a child of this worker's: drops it if it is already known as cheaply, offers it if it is a goal, and
+		 * otherwise puts it on the open list, reopening it if it was already expanded at a higher cost.
+		 * @param child A state with its g cost and parent set
+		 */
+		private void receive(GameState child) {
+
+			GameState known = seen.get(child);
+
+			if (known != null && child.getGCost() >= known.getGCost()) {
+				metrics.duplicate();
+				return;
+			}
+			long time = SearchMetrics.now();
+			child.calculateFunctionalCost(weight);
+			metrics.heuristicTimed(time);
+			seen.put(child, child);
+
+			if (child.isGoal()) {
+				offer(child);
+				return;
+			}
+			time = SearchMetrics.now();
+
+			if (closedSet.remove(child)) {
+				openSet.reopen(child);
+				metrics.reopened();
+			}
+			else if (openSet.contains(child)) {
+				openSet.decreaseKey(child);
+			}
+			else {
+				openSet.add(child);
+			}
+			metrics.openListTimed(time);
+		}
+
+		/**
+		 * Stops running until mail arrives or the search is over.
+		 * @return False if the search is over.
+		 */
+		private boolean waitForMail() {
+
+			waiting = true;
+
+			if (work.decrementAndGet() == 0) {
+				stop();
+			}
+
+			while (mailbox.isEmpty() && !done) {
+				LockSupport.parkNanos(IDLE_WAIT_NANOS);
+			}
+			// A child is waiting, and it keeps the count above zero until this worker is counted again.
+			work.incrementAndGet();
+			waiting = false;
+
+			return !done;
+		}
+	}
+}
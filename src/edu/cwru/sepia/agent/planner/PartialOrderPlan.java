@@ -0,0 +1,535 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+import edu.cwru.sepia.agent.planner.actions.DepositAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycle;
+import edu.cwru.sepia.agent.planner.actions.MoveAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.Template.TemplateView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * The sequential plan the search returns, deordered into a partial order. The plan is replayed from the start state
+ * one primitive action at a time (HarvestCycles are split up), which gives every step its unit, its duration and
+ * the cells it moves between. Each step is then described by the facts it needs, adds and deletes:
+ *
+ *   - every step needs its unit to exist, and a BuildPeasant adds the peasant it builds
+ *   - a move needs its destination to be free and deletes that, and adds its origin being free
+ *   - a harvest needs and adds its resource's turn, so harvests of a resource keep their plan order, and the
+ *     harvest that uses a resource up adds its cell being free, since the node is gone after it
+ *
+ * A step is ordered after the last earlier step that added each fact it needs, after the steps that needed a fact
+ * it deletes, and after the last earlier step that deleted a fact it adds. Steps of one unit stay in plan order, and
+ * a BuildPeasant comes after every earlier gold deposit since it spends their gold. Any order of the steps that
+ * keeps these edges has the same effect as the sequential plan.
+ *
+ * A move frees its origin as soon as the peasant steps off it, not when it arrives, so a step that needs that cell
+ * only has to wait until the move has started (a start edge, with a turn's lag) rather than until it is done.
+ * Every other edge waits for its predecessor to be done.
+ *
+ * With the durations, the earliest every step can start is the longest path to it, and starting every step then is
+ * a schedule with the least makespan the partial order allows: the length of its critical path.
+ */
+public class PartialOrderPlan {
+
+	/**
+	 * Turns a step has to wait after a step it follows by a start edge has started.
+	 */
+	public static final double START_LAG = 1.0;
+
+	/**
+	 * One primitive action of the plan with the steps it has to follow.
+	 */
+	public static class Step {
+
+		private final int index;
+		private final StripsAction action;
+		private final int unitId;
+		private final double duration;
+		private final List<Step> predecessors;
+		private final List<Step> startPredecessors;
+		private double earliestStart;
+		private Step criticalPredecessor;
+		private boolean started;
+		private boolean done;
+
+		private Step(int index, StripsAction action, int unitId, double duration) {
+
+			this.index = index;
+			this.action = action;
+			this.unitId = unitId;
+			this.duration = duration;
+			this.predecessors = new ArrayList<Step>();
+			this.startPredecessors = new ArrayList<Step>();
+		}
+
+		/**
+		 * Returns the position of this step in the sequential plan.
+		 * @return
+		 */
+		public int getIndex() {
+
+			return index;
+		}
+
+		/**
+		 * Returns the primitive action of this step.
+		 * @return
+		 */
+		public StripsAction getAction() {
+
+			return action;
+		}
+
+		/**
+		 * Returns the plan's id of the unit carrying out this step.
+		 * @return
+		 */
+		public int getUnitId() {
+
+			return unitId;
+		}
+
+		/**
+		 * Returns how long the step takes, in the planner's cost units.
+		 * @return
+		 */
+		public double getDuration() {
+
+			return duration;
+		}
+
+		/**
+		 * Returns the steps this step has to follow.
+		 * @return
+		 */
+		public List<Step> getPredecessors() {
+
+			return predecessors;
+		}
+
+		/**
+		 * Returns the steps that only have to have started before this step can start.
+		 * @return
+		 */
+		public List<Step> getStartPredecessors() {
+
+			return startPredecessors;
+		}
+
+		/**
+		 * Returns the earliest time the step can start in the deordered plan.
+		 * @return
+		 */
+		public double getEarliestStart() {
+
+			return earliestStart;
+		}
+
+		/**
+		 * Returns true once the step has been issued.
+		 * @return
+		 */
+		public boolean isStarted() {
+
+			return started;
+		}
+
+		/**
+		 * Marks the step as issued.
+		 */
+		public void markStarted() {
+
+			started = true;
+		}
+
+		/**
+		 * Returns true once the step has been carried out.
+		 * @return
+		 */
+		public boolean isDone() {
+
+			return done;
+		}
+
+		/**
+		 * Marks the step as carried out.
+		 */
+		public void markDone() {
+
+			done = true;
+		}
+
+		/**
+		 * Returns true if every step this one has to follow is done, and every step it follows by a start edge has
+		 * started.
+		 * @return
+		 */
+		public boolean isReady() {
+
+			for (Step predecessor : predecessors) {
+
+				if (!predecessor.done) {
+
+					return false;
+				}
+			}
+			for (Step predecessor : startPredecessors) {
+
+				if (!predecessor.started && !predecessor.done) {
+
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Orders this step after another one.
+		 * @param predecessor
+		 */
+		private void follow(Step predecessor) {
+
+			if (predecessor != null && predecessor != this && !predecessors.contains(predecessor)) {
+				predecessors.add(predecessor);
+				startPredecessors.remove(predecessor);
+			}
+		}
+
+		/**
+		 * Orders this step after the start of another one, unless it already has to follow all of it.
+		 * @param predecessor
+		 */
+		private void followStart(Step predecessor) {
+
+			if (predecessor != null && predecessor != this && !predecessors.contains(predecessor) && !startPredecessors.contains(predecessor)) {
+				startPredecessors.add(predecessor);
+			}
+		}
+
+		@Override
+		public String toString() {
+
+			return index + ": " + action.toString().trim();
+		}
+	}
+
+	private final List<Step> steps;
+	private final GameState startState;
+	private final double sequentialMakespan;
+	private double makespan;
+	private final List<Step> criticalPath;
+
+	/**
+	 * Deorders a plan.
+	 * @param plan The plan with its first action on top
+	 * @param startState The state the plan starts from, which is left unchanged
+	 */
+	public PartialOrderPlan(Stack<StripsAction> plan, GameState startState) {
+
+		this.steps = new ArrayList<Step>();
+		this.startState = startState;
+		this.criticalPath = new ArrayList<Step>();
+
+		TemplateView peasantTemplate = startState.getStateView().getTemplate(startState.getPlayernum(), "Peasant");
+		double buildDuration = peasantTemplate == null ? 0.0 : peasantTemplate.getTimeCost();
+		GameState state = startState;
+		double total = 0.0;
+
+		Map<String, Step> lastAdder = new HashMap<String, Step>();
+		// Steps that added a fact when they started, which is the last add of the fact until another step adds it.
+		Map<String, Step> lastStartAdder = new HashMap<String, Step>();
+		Map<String, Step> lastDeleter = new HashMap<String, Step>();
+		Map<String, List<Step>> needers = new HashMap<String, List<Step>>();
+		Map<Integer, Step> lastOfUnit = new HashMap<Integer, Step>();
+		List<Step> goldDeposits = new ArrayList<Step>();
+
+		for (int i = plan.size() - 1; i >= 0; i--) {
+			StripsAction action = plan.get(i);
+			List<StripsAction> primitives = new ArrayList<StripsAction>();
+
+			if (action instanceof HarvestCycle) {
+				primitives.addAll(((HarvestCycle) action).getPrimitiveActions());
+			}
+			else {
+				primitives.add(action);
+			}
+
+			for (StripsAction primitive : primitives) {
+				state = primitive.apply(new GameState(state, primitive));
+				double duration = primitive instanceof BuildPeasant ? buildDuration : state.cost;
+				total += duration;
+				int unitId = primitive.getUnitId();
+				Step step = new Step(steps.size(), primitive, unitId, duration);
+				step.follow(lastOfUnit.get(unitId));
+				lastOfUnit.put(unitId, step);
+
+				List<String> needs = new ArrayList<String>();
+				List<String> adds = new ArrayList<String>();
+				List<String> deletes = new ArrayList<String>();
+				List<String> addsAtStart = new ArrayList<String>();
+				describe(primitive, usedUp(state, primitive), needs, adds, deletes, addsAtStart);
+
+				for (String fact : needs) {
+					step.follow(lastAdder.get(fact));
+					step.followStart(lastStartAdder.get(fact));
+					neededBy(needers, fact).add(step);
+				}
+				for (String fact : deletes) {
+
+					for (Step needer : neededBy(needers, fact)) {
+						step.follow(needer);
+					}
+					step.follow(lastAdder.get(fact));
+					step.followStart(lastStartAdder.get(fact));
+					needers.remove(fact);
+					lastDeleter.put(fact, step);
+				}
+				for (String fact : adds) {
+					step.follow(lastDeleter.get(fact));
+					lastAdder.put(fact, step);
+					lastStartAdder.remove(fact);
+					needers.remove(fact);
+				}
+				for (String fact : addsAtStart) {
+					step.follow(lastDeleter.get(fact));
+					lastStartAdder.put(fact, step);
+					lastAdder.remove(fact);
+					needers.remove(fact);
+				}
+
+				if (primitive instanceof DepositAction && ((DepositAction) primitive).getResourceType() == ResourceType.GOLD) {
+					goldDeposits.add(step);
+				}
+				else if (primitive instanceof BuildPeasant) {
+
+					for (Step deposit : goldDeposits) {
+						step.follow(deposit);
+					}
+				}
+				steps.add(step);
+			}
+		}
+		this.sequentialMakespan = total;
+		schedule();
+	}
+
+	/**
+	 * Returns the cell of the resource a harvest used up, or null if the action is no harvest or left some behind.
+	 * @param after The state the action led to
+	 * @param action
+	 * @return
+	 */
+	private static Position usedUp(GameState after, StripsAction action) {
+
+		if (!(action instanceof HarvestAction)) {
+			return null;
+		}
+		int resource = after.getProblem().getResourceIndex(((HarvestAction) action).getResourceId());
+
+		return after.getResourceAmount(resource) <= 0 ? after.getProblem().getResourcePosition(resource) : null;
+	}
+
+	/**
+	 * Lists the facts a primitive action needs, adds and deletes.
+	 * @param action
+	 * @param usedUp The cell of the resource the action uses up, or null
+	 * @param needs
+	 * @param adds Facts added once the action is done
+	 * @param deletes
+	 * @param addsAtStart Facts added as soon as the action has started
+	 */
+	private static void describe(StripsAction action, Position usedUp, List<String> needs, List<String> adds, List<String> deletes, List<String> addsAtStart) {
+
+		if (action instanceof BuildPeasant) {
+			needs.add("unit " + action.getUnitId());
+			adds.add("unit " + ((BuildPeasant) action).getPeasantId());
+			return;
+		}
+		needs.add("unit " + action.getUnitId());
+
+		if (action instanceof MoveAction) {
+			MoveAction move = (MoveAction) action;
+
+			if (!move.getOrigin().equals(move.getDestination())) {
+				needs.add("free " + move.getDestination());
+				deletes.add("free " + move.getDestination());
+				addsAtStart.add("free " + move.getOrigin());
+			}
+		}
+		else if (action instanceof HarvestAction) {
+			String turn = "harvest " + ((HarvestAction) action).getResourceId();
+			needs.add(turn);
+			adds.add(turn);
+
+			if (usedUp != null) {
+				adds.add("free " + usedUp);
+			}
+		}
+	}
+
+	/**
+	 * Returns the steps that needed a fact since it was last added.
+	 * @param needers
+	 * @param fact
+	 * @return
+	 */
+	private static List<Step> neededBy(Map<String, List<Step>> needers, String fact) {
+
+		List<Step> list = needers.get(fact);
+
+		if (list == null) {
+			list = new ArrayList<Step>();
+			needers.put(fact, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Computes the earliest start of every step, the makespan and the critical path. Every predecessor comes earlier
+	 * in the plan, so one pass in plan order is enough. A start edge only holds a step back until its predecessor's
+	 * start plus the lag.
+	 */
+	private void schedule() {
+
+		Step last = null;
+		makespan = 0.0;
+
+		for (Step step : steps) {
+			step.earliestStart = 0.0;
+			step.criticalPredecessor = null;
+
+			for (Step predecessor : step.predecessors) {
+				double finish = predecessor.earliestStart + predecessor.duration;
+
+				if (finish > step.earliestStart) {
+					step.earliestStart = finish;
+					step.criticalPredecessor = predecessor;
+				}
+			}
+			for (Step predecessor : step.startPredecessors) {
+				double start = predecessor.earliestStart + START_LAG;
+
+				if (start > step.earliestStart) {
+					step.earliestStart = start;
+					step.criticalPredecessor = predecessor;
+				}
+			}
+
+			if (last == null || step.earliestStart + step.duration > makespan) {
+				makespan = step.earliestStart + step.duration;
+				last = step;
+			}
+		}
+
+		for (Step step = last; step != null; step = step.criticalPredecessor) {
+			criticalPath.add(step);
+		}
+		Collections.reverse(criticalPath);
+	}
+
+	/**
+	 * Returns every step in plan order.
+	 * @return
+	 */
+	public List<Step> getSteps() {
+
+		return steps;
+	}
+
+	/**
+	 * Returns the state the plan starts from.
+	 * @return
+	 */
+	public GameState getStartState() {
+
+		return startState;
+	}
+
+	/**
+	 * Returns the steps ordered by their earliest start, the order the deordered plan runs them in.
+	 * @return
+	 */
+	public List<Step> getSchedule() {
+
+		List<Step> schedule = new ArrayList<Step>(steps);
+		Collections.sort(schedule, new Comparator<Step>() {
+
+			@Override
+			public int compare(Step a, Step b) {
+
+				if (a.earliestStart != b.earliestStart) {
+
+					return a.earliestStart < b.earliestStart ? -1 : 1;
+				}
+				return a.index - b.index;
+			}
+		});
+		return schedule;
+	}
+
+	/**
+	 * Returns the plan's ids of the units that have steps, in the order they first act.
+	 * @return
+	 */
+	public Set<Integer> getUnitIds() {
+
+		Set<Integer> unitIds = new LinkedHashSet<Integer>();
+
+		for (Step step : steps) {
+			unitIds.add(step.unitId);
+		}
+		return unitIds;
+	}
+
+	/**
+	 * Returns the makespan of the plan run one step after another.
+	 * @return
+	 */
+	public double getSequentialMakespan() {
+
+		return sequentialMakespan;
+	}
+
+	/**
+	 * Returns the makespan of the deordered plan: the length of its critical path.
+	 * @return
+	 */
+	public double getMakespan() {
+
+		return makespan;
+	}
+
+	/**
+	 * Returns the chain of steps that determines the makespan.
+	 * @return
+	 */
+	public List<Step> getCriticalPath() {
+
+		return criticalPath;
+	}
+
+	/**
+	 * Returns a one line summary of the makespan before and after deordering.
+	 * @return
+	 */
+	@Override
+	public String toString() {
+
+		int percent = sequentialMakespan <= 0.0 ? 100 : (int) Math.round(100.0 * makespan / sequentialMakespan);
+
+		return "Makespan: " + sequentialMakespan + " in plan order, " + makespan + " deordered (" + percent + "%), "
+				+ steps.size() + " steps for " + getUnitIds().size() + " units, critical path of " + criticalPath.size() + " steps.";
+	}
+}
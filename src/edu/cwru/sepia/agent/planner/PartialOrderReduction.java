@@ -0,0 +1,221 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+import edu.cwru.sepia.agent.planner.actions.DepositAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycle;
+import edu.cwru.sepia.agent.planner.actions.MoveAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * Partial-order reduction of the peasants' successors. When two peasants' actions commute, doing them in either
+ * order reaches the same state at the same cost, so generateChildren only keeps the order where the peasant with the
+ * lower id acts first: a child is left out if its action commutes with the action that led to the state being
+ * expanded and belongs to a peasant with a lower id. This is a sleep set of one action, the one just taken.
+ *
+ * Two actions commute when each would be generated the same way with or without the other having gone first and
+ * their effects don't overlap. That is checked on what they touch rather than by applying them:
+ *
+ *   - they belong to different peasants, and neither is a BuildPeasant, which spends gold and adds a peasant
+ *   - they don't harvest the same resource, and neither uses up the resource it harvests, since that opens its cell
+ *     and changes the walking distances
+ *   - neither deposits the load that meets the gold or wood requirement, which stops trips for that resource
+ *   - neither moves its peasant onto a cell the other one uses, or off a cell the other one would rather have
+ *     used: a HarvestCycle picks the free cell next to its resource and next to the townhall that is the shortest
+ *     walk away, so a freed cell must be strictly further than the one picked (moves to the nearest cell only are
+ *     checked more coarsely, on the cells around their destination)
+ *   - in a temporal search, the later action's peasant was already free when the earlier one started
+ *
+ * Duplicate detection keeps one path to each state and the reduction looks at the last action of that path, so the
+ * canonical order of an optimal plan's actions can in principle be cut off; how it did on the scenarios is noted in
+ * PlannerOptions. It is off unless partialOrder=true, and skipped when nearestResources or skipTargeted pick the
+ * resources, since those look at every resource and every other peasant.
+ */
+public class PartialOrderReduction {
+
+	// What a harvest takes from a resource and a deposit adds to the stock.
+	private static final int LOAD = 100;
+
+	private PartialOrderReduction() {
+	}
+
+	/**
+	 * Returns true if the child of a state for an action can be left out because the same state is reached by doing
+	 * the action before the one that led to the state.
+	 * @param state The state being expanded
+	 * @param next The action of the child
+	 * @return
+	 */
+	public static boolean isRedundant(GameState state, StripsAction next) {
+
+		StripsAction last = state.actionHistory;
+		GameState parent = state.astarParent;
+
+		if (last == null || parent == null || next.getUnitId() >= last.getUnitId()) {
+			return false;
+		}
+		return commute(parent, last, state, next);
+	}
+
+	/**
+	 * Determines if two actions of different peasants commute.
+	 * @param before The state the first action was taken in
+	 * @param first
+	 * @param after The state the first action led to, where the second one is taken
+	 * @param second
+	 * @return
+	 */
+	private static boolean commute(GameState before, StripsAction first, GameState after, StripsAction second) {
+
+		if (first instanceof BuildPeasant || second instanceof BuildPeasant || first.getUnitId() == second.getUnitId()) {
+			return false;
+		}
+		if (!before.isPeasantFree(second.getUnitId())) {
+			return false;
+		}
+		int firstResource = resourceOf(first);
+		int secondResource = resourceOf(second);
+
+		if (firstResource >= 0 && firstResource == secondResource) {
+			return false;
+		}
+		if (usesUp(before, firstResource) || usesUp(after, secondResource)) {
+			return false;
+		}
+		if (meetsRequirement(before, first) || meetsRequirement(after, second)) {
+			return false;
+		}
+		Position firstOrigin = before.getPeasantPosition(first.getUnitId());
+		Position secondOrigin = after.getPeasantPosition(second.getUnitId());
+		Position firstEnd = endOf(first, firstOrigin);
+		Position secondEnd = endOf(second, secondOrigin);
+
+		// The second action was picked with the first one's peasant moved; taking it first means that peasant is
+		// still on its origin. The first action then comes after the second one's move instead of before it.
+		return keepsChoices(second, after, firstOrigin, firstEnd) && keepsChoices(first, before, secondEnd, secondOrigin);
+	}
+
+	/**
+	 * Returns the id of the resource an action harvests, or -1 if it harvests none.
+	 * @param action
+	 * @return
+	 */
+	private static int resourceOf(StripsAction action) {
+
+		if (action instanceof HarvestAction) {
+			return ((HarvestAction) action).getResourceId();
+		}
+		if (action instanceof HarvestCycle) {
+			return ((HarvestCycle) action).getResourceId();
+		}
+		return -1;
+	}
+
+	/**
+	 * Determines if harvesting a load from a resource uses it up.
+	 * @param state
+	 * @param resourceId A resource id, or -1 for none
+	 * @return
+	 */
+	private static boolean usesUp(GameState state, int resourceId) {
+
+		return resourceId >= 0 && state.getResourceAmount(state.getProblem().getResourceIndex(resourceId)) <= LOAD;
+	}
+
+	/**
+	 * Determines if an action deposits a load that brings the gold or wood up to the requirement. A HarvestCycle
+	 * ends with a deposit too.
+	 * @param state The state the action is taken in
+	 * @param action
+	 * @return
+	 */
+	private static boolean meetsRequirement(GameState state, StripsAction action) {
+
+		ResourceType type;
+
+		if (action instanceof DepositAction) {
+			type = ((DepositAction) action).getResourceType();
+		}
+		else if (action instanceof HarvestCycle) {
+			type = ((HarvestCycle) action).getResourceType();
+		}
+		else {
+			return false;
+		}
+		if (type == ResourceType.GOLD) {
+			return state.getCurrentGold() < state.getRequiredGold() && state.getCurrentGold() + LOAD >= state.getRequiredGold();
+		}
+		return state.getCurrentWood() < state.getRequiredWood() && state.getCurrentWood() + LOAD >= state.getRequiredWood();
+	}
+
+	/**
+	 * Returns the cell an action leaves its peasant on.
+	 * @param action
+	 * @param origin The cell the peasant starts on
+	 * @return
+	 */
+	private static Position endOf(StripsAction action, Position origin) {
+
+		if (action instanceof MoveAction) {
+			return ((MoveAction) action).getDestination();
+		}
+		if (action instanceof HarvestCycle) {
+			return ((HarvestCycle) action).getTownhallStand();
+		}
+		return origin;
+	}
+
+	/**
+	 * Determines if an action picked in a state would be generated the same way if another peasant stood elsewhere.
+	 * @param action
+	 * @param state The state the action was picked in
+	 * @param taken The cell the other peasant would stand on instead, which has to stay clear of the action
+	 * @param freed The cell the other peasant would leave, which must not be a better stand cell for the action
+	 * @return
+	 */
+	private static boolean keepsChoices(StripsAction action, GameState state, Position taken, Position freed) {
+
+		if (taken.equals(freed)) {
+			return true;
+		}
+		if (action instanceof MoveAction) {
+			Position destination = ((MoveAction) action).getDestination();
+
+			if (destination.equals(taken)) {
+				return false;
+			}
+			// With the nearest cell only, the freed cell may be nearer; the target is next to the destination and the
+			// cells next to the target are at most two steps from it.
+			return !state.getProblem().getMovePruning().isNearestCell() || freed.chebyshevDistance(destination) > 2;
+		}
+		if (action instanceof HarvestCycle) {
+			HarvestCycle cycle = (HarvestCycle) action;
+
+			if (cycle.getResourceStand().equals(taken) || cycle.getTownhallStand().equals(taken)) {
+				return false;
+			}
+			return keepsStandCell(state, cycle.getResourcePosition(), cycle.getOrigin(), cycle.getResourceStand(), freed)
+					&& keepsStandCell(state, cycle.getTownhallPosition(), cycle.getResourceStand(), cycle.getTownhallStand(), freed);
+		}
+		return true;
+	}
+
+	/**
+	 * Determines if the stand cell picked next to a target, the free one nearest to where the peasant comes from,
+	 * stays the pick when another cell is freed. Ties are counted as a different pick.
+	 * @param state
+	 * @param target
+	 * @param from
+	 * @param stand The cell picked
+	 * @param freed
+	 * @return
+	 */
+	private static boolean keepsStandCell(GameState state, Position target, Position from, Position stand, Position freed) {
+
+		if (from.isAdjacent(target) || !freed.isAdjacent(target)) {
+			return true;
+		}
+		return state.getWalkingDistance(from, freed) > state.getWalkingDistance(from, stand);
+	}
+}
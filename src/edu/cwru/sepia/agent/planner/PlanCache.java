@@ -0,0 +1,249 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.MoveAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Plans saved on disk so that an episode on a map and goal that has been planned before skips the search.
+ *
+ * Each plan is stored in its own file in the cache directory, named after a SHA-256 key of everything the plan
+ * depends on: the initial state (map extents, every unit, every resource node and the player's stock), the
+ * required gold and wood, whether peasants may be built, and the search settings. Entries are binary plan files
+ * (see PlanFile) holding the format version, the full key and the actions in execution order.
+ *
+ * An entry is only used if its version and key match and replaying its actions from the initial state reaches the
+ * goal. Anything else is stale: the file is deleted and the plan is searched for again and stored in its place.
+ */
+public class PlanCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+
+	/**
+	 * Creates a cache in the given directory. The directory is created when the first plan is stored.
+	 * @param directory
+	 */
+	public PlanCache(File directory) {
+
+		this.directory = directory;
+	}
+
+	/**
+	 * Computes the cache key of a planning problem.
+	 * @param stateView The initial state
+	 * @param playernum
+	 * @param requiredGold
+	 * @param requiredWood
+	 * @param buildPeasants
+	 * @param searchSettings The planner options that shape the plan
+	 * @return The key as a hex string
+	 */
+	public static String key(State.StateView stateView, int playernum, int requiredGold, int requiredWood, boolean buildPeasants, String searchSettings) {
+
+		StringBuilder description = new StringBuilder();
+		description.append("map ").append(stateView.getXExtent()).append(' ').append(stateView.getYExtent()).append('\n');
+		description.append("player ").append(playernum)
+				.append(" gold ").append(stateView.getResourceAmount(playernum, ResourceType.GOLD))
+				.append(" wood ").append(stateView.getResourceAmount(playernum, ResourceType.WOOD)).append('\n');
+
+		List<UnitView> units = new ArrayList<UnitView>(stateView.getAllUnits());
+		Collections.sort(units, new Comparator<UnitView>() {
+
+			@Override
+			public int compare(UnitView a, UnitView b) {
+
+				return a.getID() - b.getID();
+			}
+		});
+
+		for (UnitView unit : units) {
+			description.append("unit ").append(unit.getID()).append(' ').append(unit.getTemplateView().getPlayer())
+					.append(' ').append(unit.getTemplateView().getName())
+					.append(' ').append(unit.getXPosition()).append(' ').append(unit.getYPosition())
+					.append(' ').append(unit.getHP()).append(' ').append(unit.getCargoType()).append(' ').append(unit.getCargoAmount()).append('\n');
+		}
+		List<ResourceView> resources = new ArrayList<ResourceView>(stateView.getAllResourceNodes());
+		Collections.sort(resources, new Comparator<ResourceView>() {
+
+			@Override
+			public int compare(ResourceView a, ResourceView b) {
+
+				return a.getID() - b.getID();
+			}
+		});
+
+		for (ResourceView resource : resources) {
+			description.append("resource ").append(resource.getID()).append(' ').append(resource.getType())
+					.append(' ').append(resource.getXPosition()).append(' ').append(resource.getYPosition())
+					.append(' ').append(resource.getAmountRemaining()).append('\n');
+		}
+		description.append("goal ").append(requiredGold).append(' ').append(requiredWood).append(' ').append(buildPeasants).append('\n');
+		description.append("search ").append(searchSettings).append('\n');
+
+		return sha256(description.toString());
+	}
+
+	/**
+	 * Loads the plan stored under a key, checking it by replaying it from the start state.
+	 * @param key
+	 * @param startState The initial state of the problem, which is left unchanged
+	 * @return The plan, or null if there is no usable entry.
+	 */
+	public Stack<StripsAction> load(String key, GameState startState) {
+
+		File file = fileFor(key);
+
+		if (!file.isFile()) {
+
+			return null;
+		}
+		Stack<StripsAction> plan;
+
+		try {
+			PlanFile planFile = PlanFile.open(file);
+
+			if (!planFile.getKey().equals(key)) {
+				return invalidate(file, "it was written for another key");
+			}
+			plan = planFile.toPlan();
+		} catch (IOException e) {
+			return invalidate(file, e.getMessage());
+		} catch (RuntimeException e) {
+			return invalidate(file, "it could not be decoded (" + e + ")");
+		}
+
+		if (!reachesGoal(startState, plan)) {
+			return invalidate(file, "its plan can no longer be carried out to the goal");
+		}
+		System.out.println("Loaded cached plan of " + plan.size() + " actions from " + file.getPath());
+
+		return plan;
+	}
+
+	/**
+	 * Stores a plan under a key, replacing any entry already there.
+	 * @param key
+	 * @param plan The plan, with the first action on top
+	 */
+	public void store(String key, Stack<StripsAction> plan) {
+
+		directory.mkdirs();
+		File file = fileFor(key);
+
+		try {
+			PlanFile.write(file, key, plan);
+		} catch (IOException e) {
+			System.err.println("Could not write the plan cache entry " + file.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replays a plan from the start state and checks that every action can be taken when its turn comes and that the
+	 * plan ends in a goal state. The replay stops at the first action that can't be taken.
+	 * @param startState
+	 * @param plan The plan, with the first action on top
+	 * @return
+	 */
+	static boolean reachesGoal(GameState startState, Stack<StripsAction> plan) {
+
+		GameState state = startState;
+
+		try {
+			for (int i = plan.size() - 1; i >= 0; i--) {
+				StripsAction action = plan.get(i);
+
+				if (!canReplay(state, action)) {
+					return false;
+				}
+				state = action.apply(new GameState(state, action));
+			}
+		} catch (RuntimeException e) {
+			return false;
+		}
+		return state.isGoal();
+	}
+
+	/**
+	 * Determines if an action can be taken next when a plan is replayed one action at a time. Its preconditions must
+	 * hold, and a move must not go onto another peasant: MoveAction allows that because during execution the peasant
+	 * may be moving away, but in a sequential replay it is still there.
+	 * @param state
+	 * @param action
+	 * @return
+	 */
+	private static boolean canReplay(GameState state, StripsAction action) {
+
+		if (!action.preconditionsMet(state)) {
+			return false;
+		}
+		if (action instanceof MoveAction) {
+			Position destination = ((MoveAction) action).getDestination();
+
+			return !state.isPeasantAt(destination) || destination.equals(state.getPeasantPosition(action.getUnitId()));
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes a stale entry and reports why.
+	 * @param file
+	 * @param reason
+	 * @return null, for returning from load
+	 */
+	private static Stack<StripsAction> invalidate(File file, String reason) {
+
+		System.err.println("Discarding plan cache entry " + file.getPath() + ": " + reason);
+
+		if (!file.delete()) {
+			System.err.println("Could not delete " + file.getPath());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the file an entry is stored in.
+	 * @param key
+	 * @return
+	 */
+	private File fileFor(String key) {
+
+		return new File(directory, key.substring(0, 16) + ".plan");
+	}
+
+	/**
+	 * Returns the SHA-256 hash of a string as hex.
+	 * @param text
+	 * @return
+	 */
+	private static String sha256(String text) {
+
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(UTF8));
+			StringBuilder hex = new StringBuilder();
+
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+}
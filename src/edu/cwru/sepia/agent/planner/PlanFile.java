@@ -0,0 +1,307 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+import edu.cwru.sepia.agent.planner.actions.DepositAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycle;
+import edu.cwru.sepia.agent.planner.actions.MoveAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.util.Direction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Stack;
+
+/**
+ * A plan stored in a compact binary file, which can be executed again without planning.
+ *
+ * The file starts with a HEADER_BYTES header: the magic bytes, the format version, the record size, the number of
+ * actions and the key of the problem the plan was made for (see PlanCache.key), zero-padded. Then follows one
+ * RECORD_BYTES record per action in execution order, little-endian:
+ *
+ *   0  opcode (MOVE, HARVEST, DEPOSIT, BUILD or CYCLE)
+ *   1  direction ordinal, or -1
+ *   2  resource type: 0 none, 1 gold, 2 wood
+ *   4  unit id
+ *   8  resource id, or -1
+ *  12  five positions as x and y shorts: a move's destination; a harvest cycle's origin, resource, resource stand,
+ *      townhall and townhall stand
+ *
+ * Files are written through a channel from one buffer, and opened by mapping them into memory; get decodes one
+ * action straight from its mapped record. PlannerAgent still decodes the whole plan with toPlan, since it has to
+ * replay every action to check that the plan reaches the goal before executing it. A file with another magic,
+ * version or record size is refused, so old files are replanned instead of misread.
+ */
+public class PlanFile {
+
+	public static final int FORMAT_VERSION = 1;
+	public static final int HEADER_BYTES = 96;
+	public static final int RECORD_BYTES = 32;
+	private static final int KEY_BYTES = 64;
+	private static final byte[] MAGIC = "SEPIAPLN".getBytes(Charset.forName("US-ASCII"));
+
+	private static final byte MOVE = 1;
+	private static final byte HARVEST = 2;
+	private static final byte DEPOSIT = 3;
+	private static final byte BUILD = 4;
+	private static final byte CYCLE = 5;
+
+	private final MappedByteBuffer buffer;
+	private final int size;
+	private final String key;
+
+	/**
+	 * Wraps the mapped contents of a plan file after checking its header.
+	 * @param buffer
+	 * @throws IOException if the file isn't a plan file of this version
+	 */
+	private PlanFile(MappedByteBuffer buffer) throws IOException {
+
+		this.buffer = buffer;
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.limit() < HEADER_BYTES) {
+			throw new IOException("the file is too short for a plan");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+
+			if (buffer.get(i) != MAGIC[i]) {
+				throw new IOException("the file isn't a binary plan");
+			}
+		}
+		if (buffer.getInt(8) != FORMAT_VERSION || buffer.getInt(12) != RECORD_BYTES) {
+			throw new IOException("the plan is in format version " + buffer.getInt(8) + ", not " + FORMAT_VERSION);
+		}
+		this.size = buffer.getInt(16);
+
+		if (size < 0 || HEADER_BYTES + (long) size * RECORD_BYTES > buffer.limit()) {
+			throw new IOException("the file is shorter than its " + size + " actions");
+		}
+		byte[] keyBytes = new byte[KEY_BYTES];
+		int length = 0;
+
+		for (; length < KEY_BYTES && buffer.get(24 + length) != 0; length++) {
+			keyBytes[length] = buffer.get(24 + length);
+		}
+		this.key = new String(keyBytes, 0, length, Charset.forName("US-ASCII"));
+	}
+
+	/**
+	 * Maps a plan file into memory.
+	 * @param file
+	 * @return
+	 * @throws IOException if the file can't be read or isn't a plan file of this version
+	 */
+	public static PlanFile open(File file) throws IOException {
+
+		FileInputStream input = new FileInputStream(file);
+
+		try {
+			FileChannel channel = input.getChannel();
+
+			// The mapping stays valid after the channel is closed.
+			return new PlanFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes a plan to a file, replacing it.
+	 * @param file
+	 * @param key The key of the problem the plan was made for, or null
+	 * @param plan The plan, with the first action on top
+	 * @throws IOException
+	 */
+	public static void write(File file, String key, Stack<StripsAction> plan) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + plan.size() * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(MAGIC);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.putInt(RECORD_BYTES);
+		buffer.putInt(plan.size());
+		buffer.putInt(0);
+
+		if (key != null) {
+			byte[] keyBytes = key.getBytes(Charset.forName("US-ASCII"));
+			buffer.put(keyBytes, 0, Math.min(KEY_BYTES, keyBytes.length));
+		}
+		buffer.position(HEADER_BYTES);
+
+		for (int i = plan.size() - 1; i >= 0; i--) {
+			putRecord(buffer, plan.get(i));
+		}
+		buffer.flip();
+		FileOutputStream output = new FileOutputStream(file);
+
+		try {
+			FileChannel channel = output.getChannel();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Returns the key of the problem the plan was made for, empty if none was stored.
+	 * @return
+	 */
+	public String getKey() {
+
+		return key;
+	}
+
+	/**
+	 * Returns the number of actions in the plan.
+	 * @return
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * Decodes an action of the plan.
+	 * @param index Its position in execution order
+	 * @return
+	 * @throws IllegalArgumentException if the record isn't a valid action
+	 */
+	public StripsAction get(int index) {
+
+		int record = HEADER_BYTES + index * RECORD_BYTES;
+		byte opcode = buffer.get(record);
+		int unitId = buffer.getInt(record + 4);
+
+		switch (opcode) {
+		case MOVE:
+			return new MoveAction(unitId, buffer.getShort(record + 12), buffer.getShort(record + 14));
+		case HARVEST:
+			return new HarvestAction(unitId, direction(record), resourceType(record) == ResourceType.WOOD ? "TREE" : "GOLD_MINE",
+					buffer.getInt(record + 8));
+		case DEPOSIT:
+			return new DepositAction(unitId, direction(record), resourceType(record).name());
+		case BUILD:
+			return new BuildPeasant(unitId);
+		case CYCLE:
+			return new HarvestCycle(unitId, position(record, 0), buffer.getInt(record + 8), resourceType(record), position(record, 1),
+					position(record, 2), position(record, 3), position(record, 4));
+		default:
+			throw new IllegalArgumentException("Unknown opcode " + opcode + " in action " + index);
+		}
+	}
+
+	/**
+	 * Decodes the whole plan.
+	 * @return The plan with the first action on top
+	 */
+	public Stack<StripsAction> toPlan() {
+
+		Stack<StripsAction> plan = new Stack<StripsAction>();
+
+		for (int i = size - 1; i >= 0; i--) {
+			plan.push(get(i));
+		}
+		return plan;
+	}
+
+	/**
+	 * Appends the record of an action to a buffer.
+	 * @param buffer
+	 * @param action
+	 */
+	private static void putRecord(ByteBuffer buffer, StripsAction action) {
+
+		int record = buffer.position();
+		Direction direction = null;
+		ResourceType type = null;
+		int resourceId = -1;
+		Position[] positions = new Position[0];
+		byte opcode;
+
+		if (action instanceof MoveAction) {
+			opcode = MOVE;
+			positions = new Position[] { ((MoveAction) action).getDestination() };
+		}
+		else if (action instanceof HarvestAction) {
+			HarvestAction harvest = (HarvestAction) action;
+			opcode = HARVEST;
+			direction = harvest.getResourceDirection();
+			type = harvest.getResourceType();
+			resourceId = harvest.getResourceId();
+		}
+		else if (action instanceof DepositAction) {
+			DepositAction deposit = (DepositAction) action;
+			opcode = DEPOSIT;
+			direction = deposit.getTownhallDirection();
+			type = deposit.getResourceType();
+		}
+		else if (action instanceof BuildPeasant) {
+			opcode = BUILD;
+		}
+		else if (action instanceof HarvestCycle) {
+			HarvestCycle cycle = (HarvestCycle) action;
+			opcode = CYCLE;
+			type = cycle.getResourceType();
+			resourceId = cycle.getResourceId();
+			positions = new Position[] { cycle.getOrigin(), cycle.getResourcePosition(), cycle.getResourceStand(),
+					cycle.getTownhallPosition(), cycle.getTownhallStand() };
+		}
+		else {
+			throw new IllegalArgumentException("Can't encode action " + action);
+		}
+		buffer.put(opcode);
+		buffer.put((byte) (direction == null ? -1 : direction.ordinal()));
+		buffer.put((byte) (type == null ? 0 : (type == ResourceType.GOLD ? 1 : 2)));
+		buffer.put((byte) 0);
+		buffer.putInt(action.getUnitId());
+		buffer.putInt(resourceId);
+
+		for (Position position : positions) {
+			buffer.putShort((short) position.x);
+			buffer.putShort((short) position.y);
+		}
+		buffer.position(record + RECORD_BYTES);
+	}
+
+	/**
+	 * Reads the direction of a record.
+	 * @param record
+	 * @return
+	 */
+	private Direction direction(int record) {
+
+		return Direction.values()[buffer.get(record + 1)];
+	}
+
+	/**
+	 * Reads the resource type of a record.
+	 * @param record
+	 * @return
+	 */
+	private ResourceType resourceType(int record) {
+
+		return buffer.get(record + 2) == 2 ? ResourceType.WOOD : ResourceType.GOLD;
+	}
+
+	/**
+	 * Reads one of the positions of a record.
+	 * @param record
+	 * @param index
+	 * @return
+	 */
+	private Position position(int record, int index) {
+
+		return new Position(buffer.getShort(record + 12 + 4 * index), buffer.getShort(record + 14 + 4 * index));
+	}
+}
@@ -0,0 +1,305 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Repairs the rest of a plan when execution no longer matches it, instead of planning again from scratch.
+ *
+ * The steps that aren't done yet are first replayed from the live state with the peasants' real ids. If each of them
+ * can still be carried out and they still reach the goal, the plan is kept as it is. Otherwise a local A* search runs
+ * from the live state. The states the old plan expected after each of its remaining steps are exits for it, each
+ * with the cost the old plan still has to go from there: the g value of the old plan's goal minus the g value of that
+ * state. A search state that matches an exit can finish by following the old plan, at exactly that cost. The search
+ * keeps the cheapest finish it has found, straight to a goal or through an exit, and stops once no open state can
+ * beat it, so only the part of the plan around the divergence is planned anew. If the search runs out of its node
+ * budget first, the rest of the plan is searched for from the live state as the planner options say.
+ *
+ * This is the idea of LPA* and D* Lite, keeping what the last search learnt when the start state moves, fitted to a
+ * forward search towards a set of goal states: instead of the costs-to-go a backward search keeps, the old plan's
+ * remaining costs are reused.
+ */
+public class PlanRepair {
+
+	/**
+	 * States the local search may expand before the rest of the plan is searched for from scratch.
+	 */
+	public static final int NODE_LIMIT = 20000;
+
+	private final PlannerOptions options;
+	private List<PartialOrderPlan.Step> remaining;
+	// The states the old plan expected before each remaining step, and after the last one.
+	private List<GameState> expectedStates;
+	private double[] costToGo;
+	private Map<Long, List<Integer>> exits;
+
+	/**
+	 * Creates a plan repair that falls back to the search the given options ask for.
+	 * @param options
+	 */
+	public PlanRepair(PlannerOptions options) {
+
+		this.options = options;
+	}
+
+	/**
+	 * Repairs the steps of a plan that aren't done yet so that they reach the goal from the live state.
+	 * @param plan The plan being executed
+	 * @param liveState The state the game is in now, with the real unit ids
+	 * @param realIds The real id of every peasant of the plan that exists, by its id in the plan
+	 * @return The repaired plan with its first action on top, using the real ids, or null if no plan was found.
+	 */
+	public Stack<StripsAction> repair(PartialOrderPlan plan, GameState liveState, Map<Integer, Integer> realIds) {
+
+		long startTime = System.currentTimeMillis();
+		expectOldPlan(plan);
+		List<StripsAction> kept = follow(liveState, 0, new HashMap<Integer, Integer>(realIds));
+
+		if (kept != null) {
+			System.out.println("Plan repair: the remaining " + kept.size() + " steps still reach the goal.");
+
+			return toPlan(kept);
+		}
+		GameState best = null;
+		int bestExit = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		int expanded = 0;
+
+		liveState.gCost = 0.0;
+		liveState.calculateFunctionalCost();
+		OpenList openSet = new OpenList();
+		Map<GameState, GameState> seen = new HashMap<GameState, GameState>();
+		openSet.add(liveState);
+		seen.put(liveState, liveState);
+		int exit = exitAt(liveState);
+
+		if (exit >= 0) {
+			best = liveState;
+			bestExit = exit;
+			bestCost = costToGo[exit];
+		}
+
+		while (!openSet.isEmpty() && openSet.peek().fCost < bestCost && expanded < NODE_LIMIT) {
+			GameState current = openSet.poll();
+			expanded++;
+
+			for (GameState child : current.generateChildren()) {
+				child.gCost = current.getGCost() + child.cost;
+				GameState known = seen.get(child);
+
+				if (known != null && child.getGCost() >= known.getGCost()) {
+					continue;
+				}
+				child.setAstarParent(current);
+				child.calculateFunctionalCost();
+				seen.put(child, child);
+
+				if (child.isGoal() && child.getGCost() < bestCost) {
+					best = child;
+					bestExit = -1;
+					bestCost = child.getGCost();
+				}
+				exit = exitAt(child);
+
+				if (exit >= 0 && child.getGCost() + costToGo[exit] < bestCost) {
+					best = child;
+					bestExit = exit;
+					bestCost = child.getGCost() + costToGo[exit];
+				}
+
+				if (child.isGoal()) {
+					continue;
+				}
+				if (openSet.contains(child)) {
+					openSet.decreaseKey(child);
+				}
+				else {
+					openSet.add(child);
+				}
+			}
+		}
+
+		if (best == null) {
+			System.out.println("Plan repair: no way back to the old plan within " + NODE_LIMIT + " states, planning the rest again.");
+			GameState goal = PlannerAgent.createSearch(options).search(liveState);
+
+			return goal == null ? null : PlannerAgent.reconstructActionPlan(goal);
+		}
+		List<StripsAction> actions = new ArrayList<StripsAction>();
+		GameState rejoined = liveState;
+
+		for (Stack<StripsAction> prefix = PlannerAgent.reconstructActionPlan(best); !prefix.isEmpty();) {
+			StripsAction action = prefix.pop();
+			rejoined = action.apply(new GameState(rejoined, action));
+			actions.add(action);
+		}
+		int prefixLength = actions.size();
+
+		if (bestExit >= 0) {
+			List<StripsAction> rest = follow(rejoined, bestExit, idsAtExit(bestExit, rejoined));
+
+			if (rest == null) {
+				System.out.println("Plan repair: the old plan can't be followed from where the search rejoined it, planning the rest again.");
+				GameState goal = PlannerAgent.createSearch(options).search(liveState);
+
+				return goal == null ? null : PlannerAgent.reconstructActionPlan(goal);
+			}
+			actions.addAll(rest);
+			System.out.println("Plan repair: " + prefixLength + " new actions rejoin the old plan, which keeps its last " + rest.size()
+					+ " steps; cost " + bestCost + ", " + expanded + " states expanded in " + (System.currentTimeMillis() - startTime) + " ms.");
+		}
+		else {
+			System.out.println("Plan repair: " + prefixLength + " new actions reach the goal without the old plan; cost " + bestCost + ", "
+					+ expanded + " states expanded in " + (System.currentTimeMillis() - startTime) + " ms.");
+		}
+
+		return toPlan(actions);
+	}
+
+	/**
+	 * Replays the old plan from its start state to find the states it expects before each remaining step, their
+	 * costs to go, and the exits of the local search.
+	 * @param plan
+	 */
+	private void expectOldPlan(PartialOrderPlan plan) {
+
+		remaining = new ArrayList<PartialOrderPlan.Step>();
+		GameState expected = plan.getStartState();
+
+		// The steps that are done can run in plan order whatever order they ran in, see PartialOrderPlan.
+		for (PartialOrderPlan.Step step : plan.getSteps()) {
+
+			if (step.isDone()) {
+				expected = step.getAction().apply(new GameState(expected, step.getAction()));
+			}
+			else {
+				remaining.add(step);
+			}
+		}
+		expectedStates = new ArrayList<GameState>();
+		expectedStates.add(expected);
+
+		for (PartialOrderPlan.Step step : remaining) {
+			expected = step.getAction().apply(new GameState(expected, step.getAction()));
+			expectedStates.add(expected);
+		}
+		costToGo = new double[expectedStates.size()];
+		exits = new HashMap<Long, List<Integer>>();
+
+		for (int k = remaining.size() - 1; k >= 0; k--) {
+			costToGo[k] = costToGo[k + 1] + expectedStates.get(k + 1).cost;
+		}
+		// A plan that doesn't reach the goal even in its own states has no exits to offer.
+		for (int k = 0; k < expectedStates.size() && expected.isGoal(); k++) {
+			long key = expectedStates.get(k).getSituationKey();
+			List<Integer> indices = exits.get(key);
+
+			if (indices == null) {
+				indices = new ArrayList<Integer>();
+				exits.put(key, indices);
+			}
+			indices.add(k);
+		}
+	}
+
+	/**
+	 * Returns the index of the cheapest expected state that matches a state, or -1 if none does.
+	 * @param state
+	 * @return
+	 */
+	private int exitAt(GameState state) {
+
+		List<Integer> indices = exits.get(state.getSituationKey());
+		int exit = -1;
+
+		if (indices != null) {
+
+			for (int k : indices) {
+
+				if ((exit < 0 || costToGo[k] < costToGo[exit]) && state.sameSituation(expectedStates.get(k))) {
+					exit = k;
+				}
+			}
+		}
+		return exit;
+	}
+
+	/**
+	 * Pairs the peasants of an expected state with those of the state that matched it, slot by slot in canonical
+	 * order.
+	 * @param exit
+	 * @param state
+	 * @return The id in the matching state by id in the old plan
+	 */
+	private Map<Integer, Integer> idsAtExit(int exit, GameState state) {
+
+		GameState expected = expectedStates.get(exit);
+		Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+
+		for (int slot = 0; slot < expected.getPeasantCount(); slot++) {
+			ids.put(expected.getPeasantIdAt(slot), state.getPeasantIdAt(slot));
+		}
+		return ids;
+	}
+
+	/**
+	 * Replays the remaining steps of the old plan from a state, starting with the given one.
+	 * @param from
+	 * @param first Index of the first remaining step to replay
+	 * @param ids The id to give each peasant of the old plan; updated with the peasants built on the way
+	 * @return Copies of the steps' actions with the new ids, or null if one of them can't be carried out or they
+	 * don't reach the goal.
+	 */
+	private List<StripsAction> follow(GameState from, int first, Map<Integer, Integer> ids) {
+
+		GameState state = from;
+		List<StripsAction> actions = new ArrayList<StripsAction>();
+
+		for (int k = first; k < remaining.size(); k++) {
+			StripsAction original = remaining.get(k).getAction();
+			int unitId = original.getUnitId();
+
+			if (!(original instanceof BuildPeasant)) {
+				Integer id = ids.get(unitId);
+
+				if (id == null) {
+					return null;
+				}
+				unitId = id;
+			}
+			StripsAction action = original.copyWithUnitId(unitId);
+
+			if (!action.preconditionsMet(state)) {
+				return null;
+			}
+			state = action.apply(new GameState(state, action));
+
+			if (action instanceof BuildPeasant) {
+				ids.put(((BuildPeasant) original).getPeasantId(), ((BuildPeasant) action).getPeasantId());
+			}
+			actions.add(action);
+		}
+		return state.isGoal() ? actions : null;
+	}
+
+	/**
+	 * Turns a list of actions in execution order into a plan with the first action on top.
+	 * @param actions
+	 * @return
+	 */
+	private static Stack<StripsAction> toPlan(List<StripsAction> actions) {
+
+		Stack<StripsAction> plan = new Stack<StripsAction>();
+
+		for (int i = actions.size() - 1; i >= 0; i--) {
+			plan.push(actions.get(i));
+		}
+		return plan;
+	}
+}
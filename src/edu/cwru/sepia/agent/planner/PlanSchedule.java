@@ -0,0 +1,101 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.planner.actions.BuildPeasant;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A partial-order plan split into one queue of steps per unit, so that units can work at the same time. A unit's
+ * next step can be issued as soon as the unit is idle and every step the partial order puts before it is done
+ * (see PartialOrderPlan for the orderings), which runs the plan on the earliest-start schedule.
+ *
+ * Units keep the ids the plan gives them; peasants the plan builds are mapped to their real ids by the PEAgent once
+ * they exist.
+ */
+public class PlanSchedule {
+
+	private final PartialOrderPlan plan;
+	private final Map<Integer, LinkedList<PartialOrderPlan.Step>> queues;
+
+	/**
+	 * Splits a partial-order plan into unit queues.
+	 * @param plan
+	 */
+	public PlanSchedule(PartialOrderPlan plan) {
+
+		this.plan = plan;
+		this.queues = new LinkedHashMap<Integer, LinkedList<PartialOrderPlan.Step>>();
+
+		for (PartialOrderPlan.Step step : plan.getSteps()) {
+			LinkedList<PartialOrderPlan.Step> queue = queues.get(step.getUnitId());
+
+			if (queue == null) {
+				queue = new LinkedList<PartialOrderPlan.Step>();
+				queues.put(step.getUnitId(), queue);
+			}
+			queue.add(step);
+		}
+	}
+
+	/**
+	 * Returns the partial-order plan being scheduled.
+	 * @return
+	 */
+	public PartialOrderPlan getPlan() {
+
+		return plan;
+	}
+
+	/**
+	 * Returns the plan's ids of the units that have steps.
+	 * @return
+	 */
+	public Set<Integer> getUnitIds() {
+
+		return queues.keySet();
+	}
+
+	/**
+	 * Returns the next step of a unit that isn't done, or null if the unit has none left.
+	 * @param unitId The plan's id of the unit
+	 * @return
+	 */
+	public PartialOrderPlan.Step peek(int unitId) {
+
+		LinkedList<PartialOrderPlan.Step> queue = queues.get(unitId);
+
+		while (queue != null && !queue.isEmpty() && queue.getFirst().isDone()) {
+			queue.removeFirst();
+		}
+		return queue == null || queue.isEmpty() ? null : queue.getFirst();
+	}
+
+	/**
+	 * Returns true if the step builds a peasant.
+	 * @param step
+	 * @return
+	 */
+	public static boolean isBuild(PartialOrderPlan.Step step) {
+
+		return step.getAction() instanceof BuildPeasant;
+	}
+
+	/**
+	 * Returns true once every step is done.
+	 * @return
+	 */
+	public boolean isDone() {
+
+		for (PartialOrderPlan.Step step : plan.getSteps()) {
+
+			if (!step.isDone()) {
+
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,20 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * A search strategy the PlannerAgent can plan with. PlannerAgent picks one from the planner options.
+ */
+public interface PlanSearch {
+
+	/**
+	 * Searches for a goal state. The plan is the chain of astarParent links from the returned state back to the start.
+	 * @param startState The state which is being planned from
+	 * @return The goal state found, or null if no plan was found.
+	 */
+	public GameState search(GameState startState);
+
+	/**
+	 * Returns what the last search did, see SearchMetrics.
+	 * @return
+	 */
+	public SearchMetrics getMetrics();
+}
@@ -22,9 +22,14 @@ public class PlannerAgent extends Agent {
     final int requiredWood;
     final int requiredGold;
     final boolean buildPeasants;
+    final PlannerOptions options;
 
     // Your PEAgent implementation. This prevents you from having to parse the text file representation of your plan.
     PEAgent peAgent;
+    // What the search for the plan did, or that the plan came from the cache
+    SearchMetrics metrics;
+    // The plan as it was handed to the PEAgent
+    PartialOrderPlan partialOrderPlan;
 
     public PlannerAgent(int playernum, String[] params) {
         super(playernum);
@@ -36,15 +41,46 @@ public class PlannerAgent extends Agent {
         requiredWood = Integer.parseInt(params[0]);
         requiredGold = Integer.parseInt(params[1]);
         buildPeasants = Boolean.parseBoolean(params[2]);
+        options = new PlannerOptions(params, 3);
 
 
         System.out.println("required wood: " + requiredWood + " required gold: " + requiredGold + " build Peasants: " + buildPeasants);
+        System.out.println("planner options: " + options);
     }
 
     @Override
     public Map<Integer, Action> initialStep(State.StateView stateView, History.HistoryView historyView) {
 
-        Stack<StripsAction> plan = AstarSearch(new GameState(stateView, playernum, requiredGold, requiredWood, buildPeasants));
+        boolean temporal = options.getObjective() == PlannerOptions.Objective.MAKESPAN;
+        GameState startState = new GameState(stateView, playernum, requiredGold, requiredWood, buildPeasants, temporal);
+
+        if (!options.isMacros() || options.getMovePruning().isActive() || options.isPartialOrder()) {
+            startState = startState.copy(options.isMacros(), options.getMovePruning(), options.isPartialOrder());
+        }
+        PlanCache planCache = null;
+        String planKey = PlanCache.key(stateView, playernum, requiredGold, requiredWood, buildPeasants, options.getSearchSettings());
+        Stack<StripsAction> plan = null;
+
+        if (options.getPlanFile() != null) {
+            plan = loadPlanFile(new File(options.getPlanFile()), startState, planKey);
+        }
+
+        if (plan == null && options.isPlanCache()) {
+            planCache = new PlanCache(new File("saves", "plancache"));
+            plan = planCache.load(planKey, startState);
+        }
+
+        if (plan != null) {
+            metrics = new SearchMetrics(options.getSearchSettings());
+            metrics.markCached();
+        }
+        else {
+            plan = AstarSearch(startState);
+
+            if (planCache != null && !plan.isEmpty()) {
+                planCache.store(planKey, plan);
+            }
+        }
 
         if (plan == null) {
             System.err.println("No plan was found");
@@ -52,12 +88,18 @@ public class PlannerAgent extends Agent {
             return null;
         }
 
-        // write the plan to a text file
+        // write the plan to a text file and a binary one that can be executed again, and what the search did
         savePlan(plan);
+        savePlanFile(plan, planKey);
+        metrics.write(new File("saves", "metrics.json"));
 
+        // Lets independent steps of different units run at the same time.
+        partialOrderPlan = new PartialOrderPlan(plan, startState);
+        System.out.println(partialOrderPlan);
+        saveSchedule(partialOrderPlan);
 
         // Instantiates the PEAgent with the specified plan.
-        peAgent = new PEAgent(playernum, plan);
+        peAgent = new PEAgent(playernum, partialOrderPlan, options);
 
         return peAgent.initialStep(stateView, historyView);
     }
@@ -86,75 +128,83 @@ public class PlannerAgent extends Agent {
      * the same as your first assignment. The implementations should be very similar. The difference being that your
      * nodes are now GameState objects not MapLocation objects.
      *
+     * The search mode (plain, weighted, anytime or memory-bounded A*) and its settings come from the planner options.
+     * What the search did is kept in the metrics, which are saved next to the plan.
+     *
      * @param startState The state which is being planned from
      * @return The plan or null if no plan is found.
      */
     private Stack<StripsAction> AstarSearch(GameState startState) {
-    	PriorityQueue<GameState> openSet = new PriorityQueue<GameState>();
-    	Set<GameState> closedSet = new HashSet<GameState>();
-    	GameState current = startState;
-    	openSet.add(current);
-    	double lastPrintedProgress = 0.0;
-    	System.out.println("Planning...");
+    	PlanSearch search = createSearch(options);
+    	GameState goal = search.search(startState);
+    	metrics = search.getMetrics();
     	
-    	while (!openSet.isEmpty()) {    		
-    		current = getLowestFcost(openSet);
-    		openSet.remove(current);
-    		
-    		double currentProgress = new Double(current.getCurrentGold() + current.getCurrentWood()) / new Double(current.getRequiredGold() + current.getRequiredWood()) * 100;
-    		
-    		if (currentProgress > lastPrintedProgress && currentProgress % 10 == 0) {
-    			System.out.print(Math.round(currentProgress) + "%...");
-    			lastPrintedProgress = currentProgress;
-    		}
-    		
-			if (current.isGoal()) {
-    			System.out.println("\nSUCCESS: Path found.");    			
-    			return reconstructActionPlan(current);
-    		}
-    		openSet.remove(current);
-    		closedSet.add(current);    		
-    		List<GameState> children = current.generateChildren();
-    		Iterator<GameState> i = children.iterator();
-    		
-			while (i.hasNext()) {			
-				GameState child = i.next();							
-				
-				if (!closedSet.contains(child)) {
-					double newGCost = current.getGCost() + child.cost;
-					
-					if (newGCost < child.getGCost()) {						
-						child.gCost = newGCost;
-						child.calculateFunctionalCost();
-						child.setAstarParent(current);
-					}
-					
-					if (!openSet.contains(child)) {
-						openSet.add(child);
-					}
-				}
-			}
+    	if (goal == null) {
+    		return new Stack<StripsAction>();
     	}
-    	System.out.println("FAILURE: No available path found.");
+    	return reconstructActionPlan(goal);
+    }
+    
+    /**
+     * Creates the search the planner options ask for.
+     * @param options
+     * @return
+     */
+    static PlanSearch createSearch(PlannerOptions options) {
     	
-        return new Stack<StripsAction>();
+    	if (options.getSearchMode() == PlannerOptions.SearchMode.SMA) {
+    		return new MemoryBoundedSearch(options);
+    	}
+    	if (options.getSearchMode() == PlannerOptions.SearchMode.HDA) {
+    		return new ParallelSearch(options);
+    	}
+    	if (options.getSearchMode() == PlannerOptions.SearchMode.PORTFOLIO) {
+    		return new PortfolioSearch(options);
+    	}
+    	return new AnytimeSearch(options);
     }
     
     /**
      * Rebuilds the action plan from the final GameState chosen through A*.
+     *
+     * States that only differ in which peasant stands where are one search node, so the path to the goal can switch
+     * between id assignments wherever A* found a cheaper route to such a node. The plan is replayed from the start
+     * state and every peasant action is given the id of the peasant holding the same canonical slot in the replayed
+     * state that its own peasant held in the state it was generated from.
+     *
      * @param finalState
      * @return
      */
-    private Stack<StripsAction> reconstructActionPlan(GameState finalState) {
+    static Stack<StripsAction> reconstructActionPlan(GameState finalState) {
     	Stack<StripsAction> actionPlan = new Stack<StripsAction>();
+    	List<GameState> path = new ArrayList<GameState>();
     	
     	GameState current = finalState;    	
     	
     	while (current.astarParent != null) {
     		
-    		actionPlan.push(current.actionHistory);    		
+    		path.add(current);    		
     		current = current.astarParent;
     	}
+    	Collections.reverse(path);
+    	
+    	GameState replay = current;
+    	List<StripsAction> actions = new ArrayList<StripsAction>();
+    	
+    	for (GameState state : path) {
+    		StripsAction action = state.actionHistory;
+    		int slot = state.astarParent.getCanonicalSlot(action.getUnitId());
+    		
+    		if (slot >= 0) {
+    			action.setUnitId(replay.getPeasantIdAt(slot));
+    		}
+    		replay = action.apply(new GameState(replay, action));
+    		actions.add(action);
+    	}
+    	
+    	for (int i = actions.size() - 1; i >= 0; i--) {
+    		actionPlan.push(actions.get(i));
+    	}
 
     	return actionPlan;
     }
@@ -199,26 +249,95 @@ public class PlannerAgent extends Agent {
         }
         System.out.println("Plan saved successfully.");
     }
-    
+
     /**
-     * Gets the lowest Fcost state in the openSet
-     * @param gameStates
-     * @return
+     * Writes the plan to saves/plan.bin, in the binary format the planFile option loads (see PlanFile).
+     *
+     * @param plan
+     * @param planKey The key of the problem the plan was made for
      */
-    private GameState getLowestFcost(PriorityQueue<GameState> gameStates) {
-     
-    	GameState lowestFcost = null;
-    	if (gameStates != null) {
-    		
-	    	lowestFcost = gameStates.element();
-	    	
-	    	for (GameState state : gameStates) {
-	    		if (state.fCost < lowestFcost.fCost) {
-	    			lowestFcost = state;
-	    		}
-	    	}
-    	}
-    	
-    	return lowestFcost;
+    private void savePlanFile(Stack<StripsAction> plan, String planKey) {
+        File outputFile = new File(new File("saves"), "plan.bin");
+
+        try {
+            PlanFile.write(outputFile, planKey, plan);
+        } catch (IOException e) {
+            System.err.println("Could not write " + outputFile.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a plan written by savePlanFile, to execute it instead of planning. A plan whose file names another
+     * problem or search is refused; a plan without a key is used if it can be carried out to the goal from the start
+     * state. The whole plan is decoded once for that check, and the agent executes the decoded plan.
+     *
+     * @param file
+     * @param startState
+     * @param planKey The key of the problem being planned for
+     * @return The plan, or null if it can't be loaded or doesn't reach the goal.
+     */
+    private Stack<StripsAction> loadPlanFile(File file, GameState startState, String planKey) {
+        long startTime = System.nanoTime();
+        Stack<StripsAction> plan;
+
+        try {
+            PlanFile planFile = PlanFile.open(file);
+
+            if (!planFile.getKey().isEmpty() && !planFile.getKey().equals(planKey)) {
+                System.err.println("The plan in " + file.getPath() + " was made for another problem or search, planning instead");
+                return null;
+            }
+            plan = planFile.toPlan();
+        } catch (IOException e) {
+            System.err.println("Could not load the plan in " + file.getPath() + ": " + e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            System.err.println("Could not decode the plan in " + file.getPath() + ": " + e);
+            return null;
+        }
+        long decodeTime = System.nanoTime() - startTime;
+
+        if (!PlanCache.reachesGoal(startState, plan)) {
+            System.err.println("The plan in " + file.getPath() + " can't be carried out to the goal, planning instead");
+            return null;
+        }
+        long loadTime = System.nanoTime() - startTime;
+        System.out.println("Loaded and checked plan of " + plan.size() + " actions from " + file.getPath() + " in "
+                + (loadTime / 1000) + " us (" + (decodeTime / 1000) + " us reading it).");
+        metrics = new SearchMetrics(options.getSearchSettings());
+        metrics.markCached();
+
+        return plan;
+    }
+
+    /**
+     * Writes the deordered plan to saves/schedule.txt: every step with the earliest time it can start, in that order,
+     * followed by the critical path.
+     *
+     * @param partialOrderPlan
+     */
+    private void saveSchedule(PartialOrderPlan partialOrderPlan) {
+        File outputFile = new File(new File("saves"), "schedule.txt");
+        PrintWriter outputWriter = null;
+
+        try {
+            outputWriter = new PrintWriter(outputFile.getAbsolutePath());
+            outputWriter.println(partialOrderPlan);
+
+            for (PartialOrderPlan.Step step : partialOrderPlan.getSchedule()) {
+                outputWriter.println("t=" + step.getEarliestStart() + " (" + step.getDuration() + ") " + step);
+            }
+            outputWriter.println();
+            outputWriter.println("Critical path:");
+
+            for (PartialOrderPlan.Step step : partialOrderPlan.getCriticalPath()) {
+                outputWriter.println("t=" + step.getEarliestStart() + " (" + step.getDuration() + ") " + step);
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } finally {
+            if (outputWriter != null)
+                outputWriter.close();
+        }
     }
 }
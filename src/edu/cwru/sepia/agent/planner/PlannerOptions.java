@@ -0,0 +1,517 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional PlannerAgent settings. They follow the required wood, gold and buildPeasants arguments in the
+ * configuration file as key=value arguments, for example
+ *
+ *   <Argument>search=anytime</Argument>
+ *   <Argument>weight=3.0</Argument>
+ *   <Argument>budgetMs=5000</Argument>
+ *
+ * or search=sma with maxNodes=<n> or maxMemoryMb=<m> for the memory-bounded search, which also takes a weight.
+ * search=hda with threads=<n> spreads A* over n threads, all available processors by default, and also takes a weight.
+ * search=portfolio races several searches on their own threads, each member given as settings separated by spaces
+ * or commas, with the members separated by semicolons:
+ *
+ *   <Argument>portfolio=search=astar; search=weighted weight=5; search=weighted weight=2 macros=false</Argument>
+ *
+ * Members take the other options given here unless they set their own. race=first ends the race as soon as a member
+ * finishes its search; race=best lets the members improve the plan until budgetMs is up or an A* member proves it
+ * optimal. macros=false plans without the HarvestCycle macro action, with any search. dominance=false keeps the
+ * states that a known state dominates, which A*, weighted and anytime search drop by default when planning for
+ * makespan.
+ * moveTargets=nearest, nearestResources=<k> and skipTargeted=true prune the peasants' successors (see MovePruning),
+ * with any search. They are off by default, so plans stay optimal. On the bundled scenarios nearestResources=2 kept
+ * the optimal cost with or without the other two, nearestResources=1 stayed within 0.4% of it with the macro action
+ * and within 1.5% without; this is what was measured there, not a bound that holds on every map.
+ * partialOrder=true leaves out the children that only reorder commuting actions of different peasants (see
+ * PartialOrderReduction). On the bundled scenarios it changes little: a cost search never expands a state with a
+ * second peasant there, and a makespan search already lets only the peasants free first act, so only peasants that
+ * are free on the same turn are reordered. A* found the same plans with it; weighted search ended up on different
+ * ones, sometimes cheaper and sometimes not.
+ * objective=makespan plans for the turn the goal is reached instead of the summed action costs, with any search.
+ * checkHeuristic=true counts the expanded edges the heuristic isn't consistent on, with any search; the parallel
+ * search adds up its threads' counts and the portfolio reports each member's.
+ * planFile=saves/plan.bin executes a plan saved by an earlier run instead of planning, if it was made for the same
+ * problem and search and can still be carried out to the goal.
+ *
+ * Unknown keys are reported and ignored, and anything not given keeps its default.
+ */
+public class PlannerOptions {
+
+	private static final String DEFAULT_PORTFOLIO = "search=astar; search=weighted weight=2; search=weighted weight=5";
+
+	/**
+	 * How the planner searches for a plan.
+	 */
+	public enum SearchMode {
+		/** A* with the plain heuristic; the plan is optimal. */
+		ASTAR,
+		/** A* with the heuristic inflated by the weight; the plan costs at most weight times the optimum. */
+		WEIGHTED,
+		/** Anytime repairing A* (ARA*): weighted A* repeated with smaller weights until the time budget runs out. */
+		ANYTIME,
+		/** Simplified memory-bounded A* (SMA*): A* that forgets its worst frontier states to stay within the node budget. */
+		SMA,
+		/** Hash-distributed A* (HDA*): A* split over several threads, each owning the states that hash to it. */
+		HDA,
+		/** Several of the searches above racing on their own threads; the best plan when the race ends wins. */
+		PORTFOLIO
+	}
+
+	/**
+	 * What the search minimizes.
+	 */
+	public enum Objective {
+		/** The sum of the action costs, as if the units took turns. */
+		COST,
+		/** The makespan: units act at the same time and the plan ends when the last one is done (see GameState). */
+		MAKESPAN
+	}
+
+	// Check every expanded edge for heuristic consistency and report violations.
+	private boolean checkHeuristic = false;
+	private SearchMode searchMode = SearchMode.ASTAR;
+	private Objective objective = Objective.COST;
+	// Heuristic weight of the weighted search, and the first weight of the anytime search.
+	private double weight = 2.0;
+	private boolean weightGiven = false;
+	// How much the anytime search lowers the weight after each solution.
+	private double weightStep = 0.5;
+	// Wall clock time the anytime search may spend improving its solution.
+	private long budgetMs = 10000;
+	// States the memory-bounded search may keep, unless a memory budget is given.
+	private int maxNodes = 500000;
+	// Memory the memory-bounded search may use, in megabytes; 0 means use maxNodes.
+	private int maxMemoryMb = 0;
+	// Threads the parallel search expands states on.
+	private int threads = Runtime.getRuntime().availableProcessors();
+	// Successor pruning policies (see MovePruning).
+	private boolean nearestCell = false;
+	private int nearestResources = 0;
+	private boolean skipTargeted = false;
+	// Leave out children that only reorder commuting actions of different peasants (see PartialOrderReduction).
+	private boolean partialOrder = false;
+	// Drop generated states that a known state dominates (see DominanceIndex).
+	private boolean dominance = true;
+	// Plan an empty peasant's trip to a resource and back as one HarvestCycle step.
+	private boolean macros = true;
+	// The members of the portfolio search, and whether the first to finish ends the race.
+	private String portfolio = DEFAULT_PORTFOLIO;
+	private boolean raceFirst = true;
+	// Reuse plans stored under saves/ for the same map and goal instead of searching again.
+	private boolean planCache = true;
+	// A binary plan to execute instead of planning.
+	private String planFile = null;
+
+	/**
+	 * Parses the key=value arguments starting at the given index.
+	 * @param params The agent's arguments
+	 * @param first Index of the first optional argument
+	 */
+	public PlannerOptions(String[] params, int first) {
+
+		for (int i = first; i < params.length; i++) {
+			String[] option = params[i].split("=", 2);
+
+			if (option.length != 2) {
+				System.err.println("Ignoring planner option without a value: " + params[i]);
+				continue;
+			}
+
+			try {
+				set(option[0].trim(), option[1].trim());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Ignoring planner option " + params[i] + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Copies another set of options.
+	 * @param options
+	 */
+	private PlannerOptions(PlannerOptions options) {
+
+		this.checkHeuristic = options.checkHeuristic;
+		this.searchMode = options.searchMode;
+		this.objective = options.objective;
+		this.weight = options.weight;
+		this.weightGiven = options.weightGiven;
+		this.weightStep = options.weightStep;
+		this.budgetMs = options.budgetMs;
+		this.maxNodes = options.maxNodes;
+		this.maxMemoryMb = options.maxMemoryMb;
+		this.threads = options.threads;
+		this.macros = options.macros;
+		this.dominance = options.dominance;
+		this.partialOrder = options.partialOrder;
+		this.nearestCell = options.nearestCell;
+		this.nearestResources = options.nearestResources;
+		this.skipTargeted = options.skipTargeted;
+		this.portfolio = options.portfolio;
+		this.raceFirst = options.raceFirst;
+		this.planCache = options.planCache;
+		this.planFile = options.planFile;
+	}
+
+	/**
+	 * Sets one option.
+	 * @param key
+	 * @param value
+	 * @throws IllegalArgumentException if the value can't be used for the key
+	 */
+	private void set(String key, String value) {
+
+		if (key.equals("checkHeuristic")) {
+			checkHeuristic = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("search")) {
+			searchMode = SearchMode.valueOf(value.toUpperCase());
+		}
+		else if (key.equals("objective")) {
+			objective = Objective.valueOf(value.toUpperCase());
+		}
+		else if (key.equals("weight")) {
+			weight = Double.parseDouble(value);
+			weightGiven = true;
+
+			if (weight < 1.0) {
+				weight = 1.0;
+				throw new IllegalArgumentException("the weight must be at least 1, using 1");
+			}
+		}
+		else if (key.equals("weightStep")) {
+			double step = Double.parseDouble(value);
+
+			if (step <= 0.0) {
+				throw new IllegalArgumentException("the weight step must be positive");
+			}
+			weightStep = step;
+		}
+		else if (key.equals("budgetMs")) {
+			budgetMs = Long.parseLong(value);
+		}
+		else if (key.equals("maxNodes")) {
+			maxNodes = Integer.parseInt(value);
+		}
+		else if (key.equals("maxMemoryMb")) {
+			maxMemoryMb = Integer.parseInt(value);
+		}
+		else if (key.equals("threads")) {
+			int count = Integer.parseInt(value);
+
+			if (count < 1) {
+				throw new IllegalArgumentException("the search needs at least one thread");
+			}
+			threads = count;
+		}
+		else if (key.equals("moveTargets")) {
+
+			if (!value.equals("all") && !value.equals("nearest")) {
+				throw new IllegalArgumentException("moves go to all or the nearest free cells");
+			}
+			nearestCell = value.equals("nearest");
+		}
+		else if (key.equals("nearestResources")) {
+			int count = Integer.parseInt(value);
+
+			if (count < 0) {
+				throw new IllegalArgumentException("the number of resources can't be negative");
+			}
+			nearestResources = count;
+		}
+		else if (key.equals("skipTargeted")) {
+			skipTargeted = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("partialOrder")) {
+			partialOrder = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("dominance")) {
+			dominance = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("macros")) {
+			macros = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("portfolio")) {
+			portfolio = value;
+		}
+		else if (key.equals("race")) {
+
+			if (!value.equals("first") && !value.equals("best")) {
+				throw new IllegalArgumentException("the race is won by the first or the best plan");
+			}
+			raceFirst = value.equals("first");
+		}
+		else if (key.equals("planCache")) {
+			planCache = Boolean.parseBoolean(value);
+		}
+		else if (key.equals("planFile")) {
+			planFile = value;
+		}
+		else {
+			System.err.println("Ignoring unknown planner option: " + key);
+		}
+	}
+
+	/**
+	 * Returns true if the search should check the heuristic for consistency.
+	 * @return
+	 */
+	public boolean isCheckHeuristic() {
+
+		return checkHeuristic;
+	}
+
+	/**
+	 * Returns the search mode.
+	 * @return
+	 */
+	public SearchMode getSearchMode() {
+
+		return searchMode;
+	}
+
+	/**
+	 * Returns what the search minimizes.
+	 * @return
+	 */
+	public Objective getObjective() {
+
+		return objective;
+	}
+
+	/**
+	 * Returns the heuristic weight of the weighted search, and the first weight of the anytime search.
+	 * @return
+	 */
+	public double getWeight() {
+
+		return weight;
+	}
+
+	/**
+	 * Returns the heuristic weight of the memory-bounded search: 1 for optimal plans unless a weight was given.
+	 * @return
+	 */
+	public double getMemoryBoundedWeight() {
+
+		return weightGiven ? weight : 1.0;
+	}
+
+	/**
+	 * Returns the heuristic weight of the parallel search: 1 for optimal plans unless a weight was given.
+	 * @return
+	 */
+	public double getParallelWeight() {
+
+		return weightGiven ? weight : 1.0;
+	}
+
+	/**
+	 * Returns the number of threads the parallel search expands states on.
+	 * @return
+	 */
+	public int getThreads() {
+
+		return threads;
+	}
+
+	/**
+	 * Returns the policies that cut down the successors of the peasants.
+	 * @return
+	 */
+	public MovePruning getMovePruning() {
+
+		if (!nearestCell && nearestResources == 0 && !skipTargeted) {
+			return MovePruning.NONE;
+		}
+		return new MovePruning(nearestCell, nearestResources, skipTargeted);
+	}
+
+	/**
+	 * Returns true if the peasants' children that only reorder commuting actions are left out.
+	 * @return
+	 */
+	public boolean isPartialOrder() {
+
+		return partialOrder;
+	}
+
+	/**
+	 * Returns true if A*, weighted and anytime search drop generated states that a known state dominates when
+	 * planning for makespan.
+	 * @return
+	 */
+	public boolean isDominance() {
+
+		return dominance;
+	}
+
+	/**
+	 * Returns true if an empty peasant's trip to a resource and back is planned as one HarvestCycle step.
+	 * @return
+	 */
+	public boolean isMacros() {
+
+		return macros;
+	}
+
+	/**
+	 * Returns the options of every member of the portfolio search. A member starts from these options and applies its
+	 * own settings; members that can't be parsed or don't use astar, weighted or anytime search are reported and
+	 * left out.
+	 * @return
+	 */
+	public List<PlannerOptions> getPortfolio() {
+
+		List<PlannerOptions> members = new ArrayList<PlannerOptions>();
+
+		for (String settings : portfolio.split(";")) {
+
+			if (settings.trim().isEmpty()) {
+				continue;
+			}
+			PlannerOptions member = new PlannerOptions(this);
+			member.searchMode = SearchMode.ASTAR;
+			boolean valid = true;
+
+			for (String setting : settings.trim().split("[\\s,]+")) {
+				String[] option = setting.split("=", 2);
+
+				try {
+					if (option.length != 2) {
+						throw new IllegalArgumentException("it has no value");
+					}
+					member.set(option[0].trim(), option[1].trim());
+				} catch (IllegalArgumentException e) {
+					System.err.println("Ignoring portfolio member " + settings.trim() + ": " + setting + " can't be used, " + e.getMessage());
+					valid = false;
+				}
+			}
+			SearchMode mode = member.searchMode;
+
+			if (valid && mode != SearchMode.ASTAR && mode != SearchMode.WEIGHTED && mode != SearchMode.ANYTIME) {
+				System.err.println("Ignoring portfolio member " + settings.trim() + ": members use astar, weighted or anytime search");
+				valid = false;
+			}
+			if (valid) {
+				members.add(member);
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Returns true if the portfolio search ends as soon as one member finishes, false if it waits for the budget or
+	 * an optimal plan.
+	 * @return
+	 */
+	public boolean isRaceFirst() {
+
+		return raceFirst;
+	}
+
+	/**
+	 * Returns how much the anytime search lowers the weight after each solution.
+	 * @return
+	 */
+	public double getWeightStep() {
+
+		return weightStep;
+	}
+
+	/**
+	 * Returns the wall clock time in milliseconds the anytime search may spend improving its solution.
+	 * @return
+	 */
+	public long getBudgetMs() {
+
+		return budgetMs;
+	}
+
+	/**
+	 * Returns the number of states the memory-bounded search may keep. A memory budget is turned into a node count
+	 * with MemoryBoundedSearch's estimate of the bytes a state takes.
+	 * @return
+	 */
+	public int getMaxNodes() {
+
+		if (maxMemoryMb > 0) {
+
+			return (int) Math.min(Integer.MAX_VALUE, maxMemoryMb * 1024L * 1024L / MemoryBoundedSearch.ESTIMATED_NODE_BYTES);
+		}
+		return maxNodes;
+	}
+
+	/**
+	 * Returns true if plans should be loaded from and stored in the plan cache.
+	 * @return
+	 */
+	public boolean isPlanCache() {
+
+		return planCache;
+	}
+
+	/**
+	 * Returns the binary plan file to execute instead of planning, or null to plan.
+	 * @return
+	 */
+	public String getPlanFile() {
+
+		return planFile;
+	}
+
+	/**
+	 * Returns the settings that shape the plan the search finds, for telling cached plans apart.
+	 * @return
+	 */
+	public String getSearchSettings() {
+
+		String settings = "search=" + searchMode.name().toLowerCase();
+
+		if (searchMode == SearchMode.WEIGHTED || searchMode == SearchMode.ANYTIME) {
+			settings += " weight=" + weight;
+		}
+		if (searchMode == SearchMode.ANYTIME) {
+			settings += " weightStep=" + weightStep + " budgetMs=" + budgetMs;
+		}
+		if (searchMode == SearchMode.SMA) {
+			settings += " weight=" + getMemoryBoundedWeight() + " maxNodes=" + getMaxNodes();
+		}
+		if (searchMode == SearchMode.HDA) {
+			settings += " weight=" + getParallelWeight();
+		}
+		if (searchMode == SearchMode.PORTFOLIO) {
+			settings += " portfolio=" + portfolio.trim() + " race=" + (raceFirst ? "first" : "best") + " budgetMs=" + budgetMs;
+		}
+		if (!macros) {
+			settings += " macros=false";
+		}
+		if (!dominance) {
+			settings += " dominance=false";
+		}
+		if (getMovePruning().isActive()) {
+			settings += " " + getMovePruning();
+		}
+		if (partialOrder) {
+			settings += " partialOrder=true";
+		}
+		if (objective != Objective.COST) {
+			settings += " objective=" + objective.name().toLowerCase();
+		}
+		return settings;
+	}
+
+	/**
+	 * @return human readable string representation.
+	 */
+	@Override
+	public String toString() {
+
+		return getSearchSettings() + (searchMode == SearchMode.HDA ? " threads=" + threads : "") + " planCache=" + planCache + " checkHeuristic=" + checkHeuristic + (planFile == null ? "" : " planFile=" + planFile);
+	}
+}
@@ -0,0 +1,510 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceNode;
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.Template.TemplateView;
+import edu.cwru.sepia.environment.model.state.Unit.UnitView;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything about a planning problem that stays the same from one GameState to the next: the map, the townhall,
+ * the table of resource nodes, the goal and the walking distance cache. A single instance is shared by every state of a search so that the
+ * states themselves only carry what actually changes.
+ *
+ * Map locations are addressed by cell number (y * xExtent + x). Resources are addressed by their index in the
+ * resource table, which is fixed when the problem is created.
+ */
+public class PlanningProblem {
+
+	private final State.StateView stateView;
+	private final int playernum;
+	private final int requiredGold;
+	private final int requiredWood;
+	private final boolean buildPeasants;
+	private final boolean temporal;
+	private final boolean macros;
+	private final MovePruning movePruning;
+	private final boolean partialOrder;
+	private final int buildDuration;
+	private final int xExtent;
+	private final int yExtent;
+	private final Position[] cellPositions;
+	private final UnitView townhall;
+	private final int townhallCell;
+	private final int[] resourceIds;
+	// The index of each resource by its SEPIA id less the smallest id, -1 for ids in between that aren't resources
+	private final int[] resourceIndexes;
+	private final int firstResourceId;
+	private final int[] resourceCells;
+	private final ResourceNode.Type[] resourceNodeTypes;
+	private final int[] initialResourceAmounts;
+	private final long[] staticOccupancy;
+	private final ThreadLocal<DistanceCache> distances;
+
+	/**
+	 * Builds the problem from the stateview the plan is being made from.
+	 * @param state
+	 * @param playernum
+	 * @param requiredGold
+	 * @param requiredWood
+	 * @param buildPeasants
+	 * @param temporal True if states track when each unit is busy until and the search minimizes the makespan
+	 */
+	public PlanningProblem(State.StateView state, int playernum, int requiredGold, int requiredWood, boolean buildPeasants, boolean temporal) {
+
+		this.stateView = state;
+		this.playernum = playernum;
+		this.requiredGold = requiredGold;
+		this.requiredWood = requiredWood;
+		this.buildPeasants = buildPeasants;
+		this.temporal = temporal;
+		this.macros = true;
+		this.movePruning = MovePruning.NONE;
+		this.partialOrder = false;
+		TemplateView peasantTemplate = state.getTemplate(playernum, "Peasant");
+		this.buildDuration = peasantTemplate == null ? 0 : peasantTemplate.getTimeCost();
+		this.xExtent = state.getXExtent();
+		this.yExtent = state.getYExtent();
+		this.cellPositions = new Position[xExtent * yExtent];
+
+		for (int cell = 0; cell < cellPositions.length; cell++) {
+			cellPositions[cell] = new Position(cell % xExtent, cell / xExtent);
+		}
+		this.townhall = findTownhall(state);
+		this.townhallCell = getCell(townhall.getXPosition(), townhall.getYPosition());
+
+		List<ResourceView> resources = state.getAllResourceNodes();
+		this.resourceIds = new int[resources.size()];
+		this.resourceCells = new int[resources.size()];
+		this.resourceNodeTypes = new ResourceNode.Type[resources.size()];
+		this.initialResourceAmounts = new int[resources.size()];
+
+		for (int i = 0; i < resources.size(); i++) {
+			ResourceView resource = resources.get(i);
+			resourceIds[i] = resource.getID();
+			resourceCells[i] = getCell(resource.getXPosition(), resource.getYPosition());
+			resourceNodeTypes[i] = resource.getType();
+			initialResourceAmounts[i] = resource.getAmountRemaining();
+		}
+		int firstId = Integer.MAX_VALUE;
+		int lastId = Integer.MIN_VALUE;
+
+		for (int id : resourceIds) {
+			firstId = Math.min(firstId, id);
+			lastId = Math.max(lastId, id);
+		}
+		this.firstResourceId = resourceIds.length == 0 ? 0 : firstId;
+		this.resourceIndexes = new int[resourceIds.length == 0 ? 0 : lastId - firstId + 1];
+		Arrays.fill(resourceIndexes, -1);
+
+		for (int i = 0; i < resourceIds.length; i++) {
+			resourceIndexes[resourceIds[i] - firstResourceId] = i;
+		}
+		this.staticOccupancy = buildStaticOccupancy(state);
+		this.distances = new ThreadLocal<DistanceCache>() {
+
+			@Override
+			protected DistanceCache initialValue() {
+
+				return new DistanceCache(PlanningProblem.this);
+			}
+		};
+	}
+
+	/**
+	 * Copies a problem with other search settings. The copy shares the map tables and distance caches.
+	 * @param problem
+	 * @param macros
+	 * @param movePruning
+	 * @param partialOrder
+	 */
+	private PlanningProblem(PlanningProblem problem, boolean macros, MovePruning movePruning, boolean partialOrder) {
+
+		this.stateView = problem.stateView;
+		this.playernum = problem.playernum;
+		this.requiredGold = problem.requiredGold;
+		this.requiredWood = problem.requiredWood;
+		this.buildPeasants = problem.buildPeasants;
+		this.temporal = problem.temporal;
+		this.macros = macros;
+		this.movePruning = movePruning;
+		this.partialOrder = partialOrder;
+		this.buildDuration = problem.buildDuration;
+		this.xExtent = problem.xExtent;
+		this.yExtent = problem.yExtent;
+		this.cellPositions = problem.cellPositions;
+		this.townhall = problem.townhall;
+		this.townhallCell = problem.townhallCell;
+		this.resourceIds = problem.resourceIds;
+		this.resourceIndexes = problem.resourceIndexes;
+		this.firstResourceId = problem.firstResourceId;
+		this.resourceCells = problem.resourceCells;
+		this.resourceNodeTypes = problem.resourceNodeTypes;
+		this.initialResourceAmounts = problem.initialResourceAmounts;
+		this.staticOccupancy = problem.staticOccupancy;
+		this.distances = problem.distances;
+	}
+
+	/**
+	 * Returns this problem with the HarvestCycle macro action turned on or off, the given successor pruning and the
+	 * partial-order reduction turned on or off.
+	 * @param macros
+	 * @param movePruning
+	 * @param partialOrder
+	 * @return
+	 */
+	public PlanningProblem withSettings(boolean macros, MovePruning movePruning, boolean partialOrder) {
+
+		if (macros == this.macros && movePruning == this.movePruning && partialOrder == this.partialOrder) {
+			return this;
+		}
+		return new PlanningProblem(this, macros, movePruning, partialOrder);
+	}
+
+	/**
+	 * Builds the occupancy bitset of everything that is not a peasant: the townhall and any other unit that is not
+	 * a peasant, and every resource node. Resource nodes are cleared from a state's copy once they are used up.
+	 * @param state
+	 * @return
+	 */
+	private long[] buildStaticOccupancy(State.StateView state) {
+
+		long[] occupancy = new long[(xExtent * yExtent + 63) >> 6];
+
+		for (UnitView unit : state.getAllUnits()) {
+
+			if (!unit.getTemplateView().getName().toLowerCase().equals("peasant")) {
+				setBit(occupancy, getCell(unit.getXPosition(), unit.getYPosition()));
+			}
+		}
+		for (int cell : resourceCells) {
+			setBit(occupancy, cell);
+		}
+
+		return occupancy;
+	}
+
+	/**
+	 * Returns a new copy of the occupancy bitset of the townhall, other buildings and all resource nodes.
+	 * @return
+	 */
+	public long[] copyStaticOccupancy() {
+
+		return staticOccupancy.clone();
+	}
+
+	/**
+	 * Sets the bit of a cell in an occupancy bitset.
+	 * @param occupancy
+	 * @param cell
+	 */
+	public static void setBit(long[] occupancy, int cell) {
+
+		occupancy[cell >> 6] |= 1L << cell;
+	}
+
+	/**
+	 * Clears the bit of a cell in an occupancy bitset.
+	 * @param occupancy
+	 * @param cell
+	 */
+	public static void clearBit(long[] occupancy, int cell) {
+
+		occupancy[cell >> 6] &= ~(1L << cell);
+	}
+
+	/**
+	 * Tests the bit of a cell in an occupancy bitset.
+	 * @param occupancy
+	 * @param cell
+	 * @return
+	 */
+	public static boolean testBit(long[] occupancy, int cell) {
+
+		return (occupancy[cell >> 6] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * Finds the first townhall in the state.
+	 * @param state
+	 * @return
+	 */
+	private static UnitView findTownhall(State.StateView state) {
+
+		for (UnitView unit : state.getAllUnits()) {
+
+			if (unit.getTemplateView().getName().toLowerCase().equals("townhall")) {
+
+				return unit;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the stateview the plan is being made from.
+	 * @return
+	 */
+	public State.StateView getStateView() {
+
+		return stateView;
+	}
+
+	/**
+	 * Returns the number of the player that is planning.
+	 * @return
+	 */
+	public int getPlayernum() {
+
+		return playernum;
+	}
+
+	/**
+	 * Returns the goal amount of gold.
+	 * @return
+	 */
+	public int getRequiredGold() {
+
+		return requiredGold;
+	}
+
+	/**
+	 * Returns the goal amount of wood.
+	 * @return
+	 */
+	public int getRequiredWood() {
+
+		return requiredWood;
+	}
+
+	/**
+	 * Returns true if the BuildPeasant action should be considered.
+	 * @return
+	 */
+	public boolean isBuildPeasants() {
+
+		return buildPeasants;
+	}
+
+	/**
+	 * Returns true if the search minimizes the makespan instead of the summed action costs.
+	 * @return
+	 */
+	public boolean isTemporal() {
+
+		return temporal;
+	}
+
+	/**
+	 * Returns true if an empty peasant's trip to a resource and back is one HarvestCycle step, false if the search
+	 * moves, harvests, moves back and deposits as separate steps.
+	 * @return
+	 */
+	public boolean isMacros() {
+
+		return macros;
+	}
+
+	/**
+	 * Returns the policies that cut down the peasants' successors.
+	 * @return
+	 */
+	public MovePruning getMovePruning() {
+
+		return movePruning;
+	}
+
+	/**
+	 * Returns true if generateChildren leaves out the children that only reorder commuting actions of different
+	 * peasants (see PartialOrderReduction). Not while nearestResources or skipTargeted pick the resources.
+	 * @return
+	 */
+	public boolean isPartialOrder() {
+
+		return partialOrder && movePruning.getNearestResources() == 0 && !movePruning.isSkipTargeted();
+	}
+
+	/**
+	 * Returns the number of turns the townhall takes to build a peasant.
+	 * @return
+	 */
+	public int getBuildDuration() {
+
+		return buildDuration;
+	}
+
+	/**
+	 * Returns the width of the map.
+	 * @return
+	 */
+	public int getXExtent() {
+
+		return xExtent;
+	}
+
+	/**
+	 * Returns the height of the map.
+	 * @return
+	 */
+	public int getYExtent() {
+
+		return yExtent;
+	}
+
+	/**
+	 * Returns the cache of walking distances on this map. Each thread gets its own cache, since a cache isn't
+	 * thread-safe and the parallel search expands states of one problem on several threads.
+	 * @return
+	 */
+	public DistanceCache getDistances() {
+
+		return distances.get();
+	}
+
+	/**
+	 * Returns the cell number of a map location.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public int getCell(int x, int y) {
+
+		return y * xExtent + x;
+	}
+
+	/**
+	 * Returns the cell number of a position.
+	 * @param position
+	 * @return
+	 */
+	public int getCell(Position position) {
+
+		return getCell(position.x, position.y);
+	}
+
+	/**
+	 * Returns the (shared, immutable) position of a cell.
+	 * @param cell
+	 * @return
+	 */
+	public Position getPosition(int cell) {
+
+		return cellPositions[cell];
+	}
+
+	/**
+	 * Returns the townhall unit.
+	 * @return
+	 */
+	public UnitView getTownhall() {
+
+		return townhall;
+	}
+
+	/**
+	 * Returns the cell the townhall occupies.
+	 * @return
+	 */
+	public int getTownhallCell() {
+
+		return townhallCell;
+	}
+
+	/**
+	 * Returns the position of the townhall.
+	 * @return
+	 */
+	public Position getTownhallPosition() {
+
+		return cellPositions[townhallCell];
+	}
+
+	/**
+	 * Returns the number of resource nodes on the map at the start of planning.
+	 * @return
+	 */
+	public int getResourceCount() {
+
+		return resourceIds.length;
+	}
+
+	/**
+	 * Returns the index of the resource with the given SEPIA id, or -1 if there is none.
+	 * @param resourceId
+	 * @return
+	 */
+	public int getResourceIndex(int resourceId) {
+
+		int offset = resourceId - firstResourceId;
+
+		if (offset < 0 || offset >= resourceIndexes.length) {
+
+			return -1;
+		}
+		return resourceIndexes[offset];
+	}
+
+	/**
+	 * Returns the SEPIA id of a resource.
+	 * @param index
+	 * @return
+	 */
+	public int getResourceId(int index) {
+
+		return resourceIds[index];
+	}
+
+	/**
+	 * Returns the cell a resource occupies.
+	 * @param index
+	 * @return
+	 */
+	public int getResourceCell(int index) {
+
+		return resourceCells[index];
+	}
+
+	/**
+	 * Returns the position of a resource.
+	 * @param index
+	 * @return
+	 */
+	public Position getResourcePosition(int index) {
+
+		return cellPositions[resourceCells[index]];
+	}
+
+	/**
+	 * Returns the node type (tree or gold mine) of a resource.
+	 * @param index
+	 * @return
+	 */
+	public ResourceNode.Type getResourceNodeType(int index) {
+
+		return resourceNodeTypes[index];
+	}
+
+	/**
+	 * Returns the type of resource a node yields.
+	 * @param index
+	 * @return
+	 */
+	public ResourceType getResourceType(int index) {
+
+		return resourceNodeTypes[index] == ResourceNode.Type.TREE ? ResourceType.WOOD : ResourceType.GOLD;
+	}
+
+	/**
+	 * Returns the amount a resource held when planning started.
+	 * @param index
+	 * @return
+	 */
+	public int getInitialResourceAmount(int index) {
+
+		return initialResourceAmounts[index];
+	}
+}
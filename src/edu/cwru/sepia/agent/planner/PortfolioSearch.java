@@ -0,0 +1,211 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A portfolio of searches racing on their own threads. Scenarios favour different settings, so rather than picking
+ * one the portfolio runs several (see PlannerOptions.getPortfolio) on separate copies of the start state, with the
+ * HarvestCycle macro action and the move pruning each member asks for.
+ *
+ * The members share a cancellation token and an incumbent. Every goal a member finds is offered to the incumbent,
+ * and every member prunes with the incumbent's cost, so a cheap plan found by a greedy member speeds up the others.
+ * With race=first the race ends as soon as one member finishes its search, which proves its own bound on the
+ * incumbent. With race=best it goes on until budgetMs is up, an A* member finishes (which proves the incumbent
+ * optimal) or every member is done. The race never ends without a plan while a member may still find one. The token
+ * is then cancelled, the other members stop at their next expansion, and the incumbent is the plan.
+ */
+public class PortfolioSearch implements PlanSearch {
+
+	// How often the race checks the budget while no member has finished.
+	private static final long POLL_MS = 10;
+
+	private final PlannerOptions options;
+	private final SearchMetrics metrics;
+	private final CancellationToken token;
+	private final SharedIncumbent shared;
+	private List<Member> members;
+	private Member winner;
+	private int finishedCount;
+
+	/**
+	 * Creates a search with the given options.
+	 * @param options
+	 */
+	public PortfolioSearch(PlannerOptions options) {
+
+		this.options = options;
+		this.metrics = new SearchMetrics(options.getSearchSettings());
+		this.token = new CancellationToken();
+		this.shared = new SharedIncumbent();
+	}
+
+	/**
+	 * Races the members until the race is over.
+	 * @param startState The state which is being planned from
+	 * @return The cheapest goal state any member found, or null if no plan exists.
+	 */
+	@Override
+	public GameState search(GameState startState) {
+
+		long startTime = System.currentTimeMillis();
+		long deadline = startTime + options.getBudgetMs();
+		metrics.start();
+		members = new ArrayList<Member>();
+
+		for (PlannerOptions memberOptions : options.getPortfolio()) {
+			members.add(new Member(memberOptions, startState.copy(memberOptions.isMacros(), memberOptions.getMovePruning(), memberOptions.isPartialOrder()), members.size()));
+		}
+
+		if (members.isEmpty()) {
+			System.err.println("The portfolio has no usable members, planning with A* instead.");
+			members.add(new Member(new PlannerOptions(new String[0], 0), startState.copy(options.isMacros(), options.getMovePruning(), options.isPartialOrder()), 0));
+		}
+		System.out.println("Racing " + members.size() + " searches...");
+
+		for (Member member : members) {
+			member.thread.start();
+		}
+		String reason = awaitEnd(deadline);
+		token.cancel();
+
+		for (Member member : members) {
+
+			try {
+				member.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		GameState goal = shared.getGoal();
+		// Finished first so the members' allocation is added to what this thread allocated while it waited.
+		metrics.finish(goal);
+
+		for (Member member : members) {
+			metrics.add(member.search.getMetrics());
+		}
+
+		if (goal == null) {
+			System.out.println("FAILURE: No available path found (" + reason + ").");
+		}
+		else {
+			System.out.println("SUCCESS: Path found with cost " + goal.getGCost() + " by " + shared.getSource() + " in "
+					+ (System.currentTimeMillis() - startTime) + " ms (" + reason + ").");
+		}
+
+		for (Member member : members) {
+
+			if (member.search.getChecker() != null) {
+				System.out.println(member.options.getSearchSettings() + ": " + member.search.getChecker());
+			}
+		}
+		System.out.println(metrics);
+
+		return goal;
+	}
+
+	@Override
+	public SearchMetrics getMetrics() {
+
+		return metrics;
+	}
+
+	/**
+	 * Waits until the race is over.
+	 * @param deadline The time after which the race ends as soon as there is a plan
+	 * @return Why the race ended.
+	 */
+	private synchronized String awaitEnd(long deadline) {
+
+		while (true) {
+
+			if (winner != null && (options.isRaceFirst() || winner.isOptimal())) {
+				return winner.options.getSearchSettings() + " finished first";
+			}
+			if (finishedCount == members.size()) {
+				return "every search finished";
+			}
+			if (System.currentTimeMillis() >= deadline && shared.getGoal() != null) {
+				return "time budget of " + options.getBudgetMs() + " ms used up";
+			}
+
+			try {
+				wait(Math.max(1, Math.min(POLL_MS, deadline - System.currentTimeMillis())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return "interrupted";
+			}
+		}
+	}
+
+	/**
+	 * Records a member whose search has returned.
+	 * @param member
+	 * @param completed True if the search ended on its own rather than being cancelled or failing
+	 */
+	private synchronized void finished(Member member, boolean completed) {
+
+		finishedCount++;
+
+		// With race=best the first A* member to finish is the one that matters.
+		if (completed && (winner == null || (!winner.isOptimal() && member.isOptimal()))) {
+			winner = member;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * One search of the portfolio and the thread it runs on.
+	 */
+	private class Member implements Runnable {
+
+		private final PlannerOptions options;
+		private final GameState startState;
+		private final AnytimeSearch search;
+		private final Thread thread;
+
+		/**
+		 * Creates the member with the given options.
+		 * @param options
+		 * @param startState Its own copy of the start state
+		 * @param index
+		 */
+		public Member(PlannerOptions options, GameState startState, int index) {
+
+			this.options = options;
+			this.startState = startState;
+			this.search = new AnytimeSearch(options);
+			this.search.share(token, shared);
+			this.thread = new Thread(this, "planner-portfolio-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * Returns true if a finished search of this member proves the incumbent optimal.
+		 * @return
+		 */
+		public boolean isOptimal() {
+
+			if (options.getMovePruning().isActive() || options.isPartialOrder()) {
+				return false;
+			}
+			return options.getSearchMode() == PlannerOptions.SearchMode.ASTAR
+					|| (options.getSearchMode() == PlannerOptions.SearchMode.WEIGHTED && options.getWeight() <= 1.0);
+		}
+
+		@Override
+		public void run() {
+
+			boolean completed = false;
+
+			try {
+				search.search(startState);
+				completed = !token.isCancelled();
+			} catch (RuntimeException e) {
+				System.err.println("Portfolio member " + options.getSearchSettings() + " failed: " + e);
+			} finally {
+				finished(this, completed);
+			}
+		}
+	}
+}
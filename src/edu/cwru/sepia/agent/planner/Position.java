@@ -1,14 +1,9 @@
 package edu.cwru.sepia.agent.planner;
 
-import edu.cwru.sepia.environment.model.state.ResourceNode;
-import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
-import edu.cwru.sepia.environment.model.state.State.StateView;
-import edu.cwru.sepia.environment.model.state.Unit.UnitView;
 import edu.cwru.sepia.util.Direction;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by Devin on 3/15/15.
@@ -21,6 +16,8 @@ import java.util.Map;
  */
 public class Position {
 
+    private static final Direction[] DIRECTIONS = Direction.values();
+
     public final int x;
     public final int y;
 
@@ -67,37 +64,24 @@ public class Position {
     }
     
     /**
-     * Get all adjacent positions that are adjacent, unoccupied, and in bounds.
+     * Get all adjacent positions that are adjacent, unoccupied, and in bounds. Occupancy is a bit test on the
+     * state's occupancy bitset, and the returned positions are the problem's shared instances, so only the list
+     * is allocated.
      * @return
      */
-    public List<Position> getValidAdjacentPositions(StateView state, UnitView townHall, Map<Integer, Peasant> peasants, List<ResourceNode> resources) {
-    	List<Position> positions = new ArrayList<Position>();
+    public List<Position> getValidAdjacentPositions(GameState state) {
+    	List<Position> positions = new ArrayList<Position>(DIRECTIONS.length);
+    	PlanningProblem problem = state.getProblem();
     	
-    	for (Direction direction : Direction.values()) {
-    		Position candidate = move(direction);
-    		if (inBounds(state.getXExtent(), state.getYExtent(), candidate.x, candidate.y)) {
-    			boolean canAdd = true;
-    			Position thPos = new Position(townHall.getXPosition(), townHall.getYPosition());
-    			if (candidate.equals(thPos)) {
-    				canAdd = false;
-    			}
-    			for (Peasant peasant : peasants.values()) {
-    				
-    				if (candidate.equals(peasant.getPosition())) {
-    					canAdd = false;
-    				}
-    			}
-    			
-    			for (ResourceNode resource : resources) {
-    				Position resourcePos = new Position(resource.getxPosition(), resource.getyPosition());
-    				
-    				if (candidate.equals(resourcePos)) {
-    					canAdd = false;
-    				}
-    			}
+    	for (Direction direction : DIRECTIONS) {
+    		int candidateX = x + direction.xComponent();
+    		int candidateY = y + direction.yComponent();
+    		
+    		if (inBounds(problem.getXExtent(), problem.getYExtent(), candidateX, candidateY)) {
+    			int cell = problem.getCell(candidateX, candidateY);
     			
-    			if (canAdd) {
-    				positions.add(candidate);
+    			if (!state.isOccupied(cell)) {
+    				positions.add(problem.getPosition(cell));
     			}
     		}
     	}
@@ -0,0 +1,117 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Arrays;
+
+/**
+ * The remaining amount of every resource in a state, as a persistent (immutable) array. The amounts are split into
+ * small fixed-size chunks; changing one amount copies only the chunk that holds it and the short array of chunk
+ * references, and every other chunk is shared with the state it came from. Since most actions do not touch a
+ * resource at all, most child states share their parent's instance outright.
+ */
+public final class ResourceAmounts {
+
+	private static final int CHUNK_BITS = 3;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int[][] chunks;
+	private final int size;
+
+	private ResourceAmounts(int[][] chunks, int size) {
+
+		this.chunks = chunks;
+		this.size = size;
+	}
+
+	/**
+	 * Creates the amounts from a plain array, indexed like the problem's resource table.
+	 * @param amounts
+	 * @return
+	 */
+	public static ResourceAmounts of(int[] amounts) {
+
+		int[][] chunks = new int[(amounts.length + CHUNK_MASK) >> CHUNK_BITS][];
+
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			chunks[chunk] = Arrays.copyOfRange(amounts, chunk << CHUNK_BITS, Math.min(amounts.length, (chunk + 1) << CHUNK_BITS));
+		}
+
+		return new ResourceAmounts(chunks, amounts.length);
+	}
+
+	/**
+	 * Returns the number of resources.
+	 * @return
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * Returns the amount left in a resource.
+	 * @param resource
+	 * @return
+	 */
+	public int get(int resource) {
+
+		return chunks[resource >> CHUNK_BITS][resource & CHUNK_MASK];
+	}
+
+	/**
+	 * Returns amounts equal to these except for one resource. This instance is left unchanged.
+	 * @param resource
+	 * @param amount
+	 * @return
+	 */
+	public ResourceAmounts with(int resource, int amount) {
+
+		int chunk = resource >> CHUNK_BITS;
+		int[][] copy = chunks.clone();
+		copy[chunk] = chunks[chunk].clone();
+		copy[chunk][resource & CHUNK_MASK] = amount;
+
+		return new ResourceAmounts(copy, size);
+	}
+
+	/**
+	 * Two instances are equal if every amount is equal. Chunks that are shared are not looked at.
+	 */
+	@Override
+	public boolean equals(Object o) {
+
+		if (this == o) {
+
+			return true;
+		}
+		if (!(o instanceof ResourceAmounts)) {
+
+			return false;
+		}
+		ResourceAmounts other = (ResourceAmounts) o;
+
+		if (size != other.size) {
+
+			return false;
+		}
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+
+			if (chunks[chunk] != other.chunks[chunk] && !Arrays.equals(chunks[chunk], other.chunks[chunk])) {
+
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+
+		int hashCode = size;
+
+		for (int[] chunk : chunks) {
+			hashCode = 31 * hashCode + Arrays.hashCode(chunk);
+		}
+		return hashCode;
+	}
+}
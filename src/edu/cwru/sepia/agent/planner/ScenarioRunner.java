@@ -0,0 +1,272 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.agent.Agent;
+import edu.cwru.sepia.environment.Environment;
+import edu.cwru.sepia.environment.model.SimpleModel;
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.StateCreator;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+import edu.cwru.sepia.experiment.Configuration;
+import edu.cwru.sepia.experiment.ConfigurationValues;
+import edu.cwru.sepia.util.config.xml.XmlAgentParameters;
+import edu.cwru.sepia.util.config.xml.XmlConfiguration;
+import edu.cwru.sepia.util.config.xml.XmlKeyValuePair;
+import edu.cwru.sepia.util.config.xml.XmlModelParameters;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Plays scenarios without the VisualAgent and reports how the PlannerAgent did on each as CSV: planning time,
+ * states expanded, branching factor, plan length, game turns to the goal and peak heap. Run it from the project
+ * directory as
+ *
+ *   java -cp lib/Sepia.jar:bin edu.cwru.sepia.agent.planner.ScenarioRunner [-o file.csv] [config.xml...] [key=value...]
+ *
+ * Without configuration files it plays every configuration in data/. Arguments of the form key=value are planner
+ * options (see PlannerOptions) added to each PlannerAgent; the plan cache is off unless planCache=true is given, so
+ * every run plans. The CSV goes to saves/scenarios.csv unless -o names another file, and is printed at the end.
+ *
+ * Each scenario is played for one episode the way SEPIA's episodic runner plays it, with every player of the
+ * configuration except the VisualAgent. Peak heap is the highest the heap got during the scenario, after a
+ * collection before it.
+ */
+public class ScenarioRunner {
+
+	private static final String VISUAL_AGENT = "edu.cwru.sepia.agent.visual.VisualAgent";
+	private static final String HEADER = "scenario,goal_reached,turns,planning_ms,cached,expanded,generated,branching,plan_cost,plan_steps,makespan,peak_heap_mb,wall_ms";
+
+	public static void main(String[] args) {
+
+		List<File> configs = new ArrayList<File>();
+		List<String> plannerOptions = new ArrayList<String>();
+		File output = new File("saves", "scenarios.csv");
+		plannerOptions.add("planCache=false");
+
+		for (int i = 0; i < args.length; i++) {
+
+			if (args[i].equals("-o") && i + 1 < args.length) {
+				output = new File(args[++i]);
+			}
+			else if (args[i].contains("=")) {
+				plannerOptions.add(args[i]);
+			}
+			else {
+				configs.add(new File(args[i]));
+			}
+		}
+
+		if (configs.isEmpty()) {
+			File[] data = new File("data").listFiles();
+
+			if (data != null) {
+				Arrays.sort(data);
+
+				for (File file : data) {
+
+					if (file.getName().endsWith(".xml")) {
+						configs.add(file);
+					}
+				}
+			}
+		}
+		StringBuilder csv = new StringBuilder(HEADER).append('\n');
+
+		for (File config : configs) {
+			String row = run(config, plannerOptions);
+
+			if (row != null) {
+				csv.append(row).append('\n');
+			}
+		}
+		File parent = output.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		PrintWriter writer = null;
+
+		try {
+			writer = new PrintWriter(output);
+			writer.print(csv);
+		} catch (FileNotFoundException e) {
+			System.err.println("Could not write " + output + ": " + e.getMessage());
+		} finally {
+			if (writer != null)
+				writer.close();
+		}
+		System.out.println();
+		System.out.print(csv);
+
+		// SEPIA's agent threads don't end with the episodes.
+		System.exit(0);
+	}
+
+	/**
+	 * Plays one scenario.
+	 * @param config The configuration file
+	 * @param plannerOptions Options to add to every PlannerAgent's arguments
+	 * @return The scenario's CSV row, or null if the file isn't a configuration with a PlannerAgent.
+	 */
+	private static String run(File config, List<String> plannerOptions) {
+
+		String scenario = config.getName().replaceAll("\\.xml$", "");
+		XmlConfiguration xml;
+
+		try {
+			xml = (XmlConfiguration) JAXBContext.newInstance(XmlConfiguration.class).createUnmarshaller().unmarshal(config);
+		} catch (Exception e) {
+			System.out.println("Skipping " + config + ": not a configuration file.");
+			return null;
+		}
+
+		try {
+			XmlState map = (XmlState) JAXBContext.newInstance(XmlState.class).createUnmarshaller().unmarshal(new File(xml.getMap()));
+			StateCreator stateCreator = new XmlStateCreator(map);
+			List<Agent> agents = new ArrayList<Agent>();
+			PlannerAgent planner = null;
+
+			for (XmlAgentParameters player : xml.getPlayer()) {
+				String className = player.getAgentClass().getClassName();
+				List<String> arguments = new ArrayList<String>(player.getAgentClass().getArgument());
+
+				if (className.equals(VISUAL_AGENT)) {
+					continue;
+				}
+				if (className.equals(PlannerAgent.class.getName())) {
+					arguments.addAll(plannerOptions);
+					planner = new PlannerAgent(player.getId(), arguments.toArray(new String[arguments.size()]));
+					agents.add(planner);
+				}
+				else {
+					agents.add((Agent) Class.forName(className).getConstructor(int.class, String[].class)
+							.newInstance(player.getId(), arguments.toArray(new String[arguments.size()])));
+				}
+			}
+
+			if (planner == null) {
+				System.out.println("Skipping " + config + ": no PlannerAgent.");
+				return null;
+			}
+			System.out.println("Running " + scenario + "...");
+			SimpleModel model = new SimpleModel(stateCreator.createState(), 0, stateCreator, getModelConfiguration(xml.getModelParameters()));
+			Environment environment = new Environment(agents.toArray(new Agent[agents.size()]), model, 0);
+
+			System.gc();
+			resetPeakHeap();
+			long startTime = System.currentTimeMillis();
+			environment.runEpisode();
+			long wallTime = System.currentTimeMillis() - startTime;
+
+			return row(scenario, planner, model.getState(), wallTime);
+		} catch (JAXBException e) {
+			System.err.println("Could not load the map of " + config + ": " + e.getMessage());
+		} catch (Exception e) {
+			System.err.println("Scenario " + scenario + " failed: " + e);
+			e.printStackTrace();
+		}
+		return scenario + ",error,,,,,,,,,,,";
+	}
+
+	/**
+	 * Turns the configuration's model parameters into a model configuration, as SEPIA's Main2 does.
+	 * @param parameters
+	 * @return
+	 */
+	private static Configuration getModelConfiguration(XmlModelParameters parameters) {
+
+		Configuration configuration = new Configuration();
+		configuration.put(ConfigurationValues.MODEL_CONQUEST.key, parameters.isConquest());
+		configuration.put(ConfigurationValues.MODEL_MIDAS.key, parameters.isMidas());
+		configuration.put(ConfigurationValues.MODEL_MANIFEST_DESTINY.key, parameters.isManifestDestiny());
+		configuration.put(ConfigurationValues.MODEL_TIME_LIMIT.key, parameters.getTimeLimit());
+
+		for (XmlKeyValuePair requirement : parameters.getRequirement()) {
+			configuration.put(requirement.getName(), requirement.getValue());
+		}
+		return configuration;
+	}
+
+	/**
+	 * Builds the CSV row of a finished scenario.
+	 * @param scenario
+	 * @param planner
+	 * @param state The state the game ended in
+	 * @param wallTime
+	 * @return
+	 */
+	private static String row(String scenario, PlannerAgent planner, State state, long wallTime) {
+
+		State.StateView view = state.getView(planner.getPlayerNumber());
+		boolean goalReached = view.getResourceAmount(planner.getPlayerNumber(), ResourceType.GOLD) >= planner.requiredGold
+				&& view.getResourceAmount(planner.getPlayerNumber(), ResourceType.WOOD) >= planner.requiredWood;
+		SearchMetrics metrics = planner.metrics;
+		PartialOrderPlan plan = planner.partialOrderPlan;
+		StringBuilder row = new StringBuilder(scenario);
+
+		row.append(',').append(goalReached);
+		row.append(',').append(view.getTurnNumber());
+		row.append(',').append(metrics == null ? "" : format(metrics.getTimeMs()));
+		row.append(',').append(metrics == null ? "" : String.valueOf(metrics.isCached()));
+		row.append(',').append(metrics == null ? "" : String.valueOf(metrics.getExpanded()));
+		row.append(',').append(metrics == null ? "" : String.valueOf(metrics.getGenerated()));
+		row.append(',').append(metrics == null ? "" : format(metrics.getBranchingFactor()));
+		row.append(',').append(metrics == null ? "" : String.valueOf(metrics.getCost()));
+		row.append(',').append(plan == null ? "" : String.valueOf(plan.getSteps().size()));
+		row.append(',').append(plan == null ? "" : String.valueOf(plan.getMakespan()));
+		row.append(',').append(format(getPeakHeap() / (1024.0 * 1024.0)));
+		row.append(',').append(wallTime);
+
+		return row.toString();
+	}
+
+	/**
+	 * Resets the peak usage of the heap's memory pools.
+	 */
+	private static void resetPeakHeap() {
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the bytes of heap in use at the peak since the last reset, summed over the heap's memory pools. The
+	 * pools peak at different times, so this can be somewhat above the heap's true peak.
+	 * @return
+	 */
+	private static long getPeakHeap() {
+
+		long peak = 0;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Formats a number with one decimal.
+	 * @param value
+	 * @return
+	 */
+	private static String format(double value) {
+
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+}
@@ -0,0 +1,428 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * What a search did to find its plan: how many states it generated, expanded, reopened and dropped as duplicates or
+ * as dominated, how large its open and closed sets got, where its time went and how much it allocated. The searches
+ * fill it in as they run, and the PlannerAgent writes it to saves/metrics.json next to the plan so runs can be
+ * compared.
+ *
+ * Time is measured with System.nanoTime around generateChildren, the heuristic and every open list operation, so
+ * the three add up to a little less than the search time; the rest is duplicate detection and bookkeeping.
+ * Allocation is read from the JVM's per-thread allocation counter, and reported as -1 where the JVM has none.
+ */
+public class SearchMetrics {
+
+	private final String settings;
+	private boolean cached;
+	private boolean found;
+	private double cost = -1.0;
+	private long generated;
+	private long expanded;
+	private long reopened;
+	private long duplicates;
+	private long dominated;
+	private int peakOpen;
+	private int peakClosed;
+	private long generateNanos;
+	private long heuristicNanos;
+	private long openListNanos;
+	private long startNanos;
+	private long elapsedNanos;
+	private long startAllocated = -1;
+	private long allocatedBytes = -1;
+
+	/**
+	 * Creates empty metrics for a search with the given settings.
+	 * @param settings The search settings, as PlannerOptions.getSearchSettings gives them
+	 */
+	public SearchMetrics(String settings) {
+
+		this.settings = settings;
+	}
+
+	/**
+	 * Returns the current time for timing a piece of the search with one of the methods below.
+	 * @return
+	 */
+	public static long now() {
+
+		return System.nanoTime();
+	}
+
+	/**
+	 * Marks the start of the search.
+	 */
+	public void start() {
+
+		startNanos = now();
+		startAllocated = threadAllocatedBytes();
+	}
+
+	/**
+	 * Marks the end of the search.
+	 * @param goal The goal state found, or null
+	 */
+	public void finish(GameState goal) {
+
+		elapsedNanos = now() - startNanos;
+		long allocated = threadAllocatedBytes();
+
+		if (startAllocated >= 0 && allocated >= 0) {
+			allocatedBytes = allocated - startAllocated;
+		}
+		found = goal != null;
+		cost = goal == null ? -1.0 : goal.getGCost();
+	}
+
+	/**
+	 * Records a plan that was loaded from the plan cache instead of searched for. Its cost isn't known.
+	 */
+	public void markCached() {
+
+		cached = true;
+		found = true;
+	}
+
+	/**
+	 * Records the expansion of a state whose children were generated since the given time.
+	 * @param since
+	 * @param children The number of children generated
+	 */
+	public void expanded(long since, int children) {
+
+		generateNanos += now() - since;
+		expanded++;
+		generated += children;
+	}
+
+	/**
+	 * Records the time spent on the heuristic since the given time.
+	 * @param since
+	 */
+	public void heuristicTimed(long since) {
+
+		heuristicNanos += now() - since;
+	}
+
+	/**
+	 * Records the time spent on the open list since the given time.
+	 * @param since
+	 */
+	public void openListTimed(long since) {
+
+		openListNanos += now() - since;
+	}
+
+	/**
+	 * Records a closed state put back on the open list.
+	 */
+	public void reopened() {
+
+		reopened++;
+	}
+
+	/**
+	 * Records a generated state that was dropped because it was already known at the same or a lower cost.
+	 */
+	public void duplicate() {
+
+		duplicates++;
+	}
+
+	/**
+	 * Records a generated state that was dropped because a known state dominates it.
+	 */
+	public void dominated() {
+
+		dominated++;
+	}
+
+	/**
+	 * Records the current sizes of the open and closed sets.
+	 * @param open
+	 * @param closed
+	 */
+	public void sizes(int open, int closed) {
+
+		peakOpen = Math.max(peakOpen, open);
+		peakClosed = Math.max(peakClosed, closed);
+	}
+
+	/**
+	 * Adds in the counts, times and allocation of a search that ran on another thread as part of this one. Peak set
+	 * sizes are summed, which is an upper bound on how large the sets got together, and times are summed over the
+	 * threads, so they can add up to more than the search time.
+	 * @param part
+	 */
+	public void add(SearchMetrics part) {
+
+		generated += part.generated;
+		expanded += part.expanded;
+		reopened += part.reopened;
+		duplicates += part.duplicates;
+		dominated += part.dominated;
+		peakOpen += part.peakOpen;
+		peakClosed += part.peakClosed;
+		generateNanos += part.generateNanos;
+		heuristicNanos += part.heuristicNanos;
+		openListNanos += part.openListNanos;
+
+		if (allocatedBytes >= 0 && part.allocatedBytes >= 0) {
+			allocatedBytes += part.allocatedBytes;
+		}
+	}
+
+	/**
+	 * Returns the bytes allocated by the searching thread since the JVM started, or -1 if the JVM doesn't count them.
+	 * @return
+	 */
+	private static long threadAllocatedBytes() {
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+
+		if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns true if the plan came from the plan cache.
+	 * @return
+	 */
+	public boolean isCached() {
+
+		return cached;
+	}
+
+	/**
+	 * Returns true if a plan was found.
+	 * @return
+	 */
+	public boolean isFound() {
+
+		return found;
+	}
+
+	/**
+	 * Returns the cost of the plan found, or -1.
+	 * @return
+	 */
+	public double getCost() {
+
+		return cost;
+	}
+
+	/**
+	 * Returns the number of states generated.
+	 * @return
+	 */
+	public long getGenerated() {
+
+		return generated;
+	}
+
+	/**
+	 * Returns the number of states expanded.
+	 * @return
+	 */
+	public long getExpanded() {
+
+		return expanded;
+	}
+
+	/**
+	 * Returns the average number of children generated per expanded state.
+	 * @return
+	 */
+	public double getBranchingFactor() {
+
+		return expanded == 0 ? 0.0 : (double) generated / expanded;
+	}
+
+	/**
+	 * Returns the number of closed states put back on the open list.
+	 * @return
+	 */
+	public long getReopened() {
+
+		return reopened;
+	}
+
+	/**
+	 * Returns the number of generated states dropped as duplicates.
+	 * @return
+	 */
+	public long getDuplicates() {
+
+		return duplicates;
+	}
+
+	/**
+	 * Returns the number of generated states dropped because a known state dominates them.
+	 * @return
+	 */
+	public long getDominated() {
+
+		return dominated;
+	}
+
+	/**
+	 * Returns the largest the open set got.
+	 * @return
+	 */
+	public int getPeakOpen() {
+
+		return peakOpen;
+	}
+
+	/**
+	 * Returns the largest the closed set got.
+	 * @return
+	 */
+	public int getPeakClosed() {
+
+		return peakClosed;
+	}
+
+	/**
+	 * Returns the milliseconds the search took.
+	 * @return
+	 */
+	public double getTimeMs() {
+
+		return elapsedNanos / 1e6;
+	}
+
+	/**
+	 * Returns the milliseconds spent generating children.
+	 * @return
+	 */
+	public double getGenerateChildrenMs() {
+
+		return generateNanos / 1e6;
+	}
+
+	/**
+	 * Returns the milliseconds spent computing the heuristic.
+	 * @return
+	 */
+	public double getHeuristicMs() {
+
+		return heuristicNanos / 1e6;
+	}
+
+	/**
+	 * Returns the milliseconds spent on the open list.
+	 * @return
+	 */
+	public double getOpenListMs() {
+
+		return openListNanos / 1e6;
+	}
+
+	/**
+	 * Returns the bytes the search allocated, or -1 if unknown.
+	 * @return
+	 */
+	public long getAllocatedBytes() {
+
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the bytes the search allocated per expanded state, or -1 if unknown.
+	 * @return
+	 */
+	public long getBytesPerExpansion() {
+
+		return allocatedBytes < 0 ? -1 : allocatedBytes / Math.max(1, expanded);
+	}
+
+	/**
+	 * Returns the metrics as a JSON object.
+	 * @return
+	 */
+	public String toJson() {
+
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"search\": \"").append(settings.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+		json.append("  \"cached\": ").append(cached).append(",\n");
+		json.append("  \"found\": ").append(found).append(",\n");
+		json.append("  \"cost\": ").append(cost).append(",\n");
+		json.append("  \"timeMs\": ").append(format(getTimeMs())).append(",\n");
+		json.append("  \"nodesGenerated\": ").append(generated).append(",\n");
+		json.append("  \"nodesExpanded\": ").append(expanded).append(",\n");
+		json.append("  \"branchingFactor\": ").append(format(getBranchingFactor())).append(",\n");
+		json.append("  \"nodesReopened\": ").append(reopened).append(",\n");
+		json.append("  \"duplicatesPruned\": ").append(duplicates).append(",\n");
+		json.append("  \"dominatedPruned\": ").append(dominated).append(",\n");
+		json.append("  \"peakOpen\": ").append(peakOpen).append(",\n");
+		json.append("  \"peakClosed\": ").append(peakClosed).append(",\n");
+		json.append("  \"generateChildrenMs\": ").append(format(getGenerateChildrenMs())).append(",\n");
+		json.append("  \"heuristicMs\": ").append(format(getHeuristicMs())).append(",\n");
+		json.append("  \"openListMs\": ").append(format(getOpenListMs())).append(",\n");
+		json.append("  \"allocatedBytes\": ").append(allocatedBytes).append(",\n");
+		json.append("  \"bytesPerExpansion\": ").append(getBytesPerExpansion()).append("\n");
+
+		return json.append("}\n").toString();
+	}
+
+	/**
+	 * Formats milliseconds with three decimals.
+	 * @param ms
+	 * @return
+	 */
+	private static String format(double ms) {
+
+		return String.format(Locale.ROOT, "%.3f", ms);
+	}
+
+	/**
+	 * Writes the metrics as JSON to a file.
+	 * @param file
+	 */
+	public void write(File file) {
+
+		PrintWriter writer = null;
+
+		try {
+			writer = new PrintWriter(file);
+			writer.print(toJson());
+		} catch (FileNotFoundException e) {
+			System.err.println("Could not write the search metrics to " + file + ": " + e.getMessage());
+		} finally {
+			if (writer != null)
+				writer.close();
+		}
+	}
+
+	/**
+	 * @return human readable string representation.
+	 */
+	@Override
+	public String toString() {
+
+		if (cached) {
+			return "Search metrics: plan loaded from the cache.";
+		}
+		return "Search metrics: " + expanded + " expanded, " + generated + " generated (" + format(getBranchingFactor())
+				+ " per expansion), " + duplicates + " duplicates, " + dominated + " dominated, " + reopened + " reopened; "
+				+ "peak open " + peakOpen + ", closed " + peakClosed + "; "
+				+ format(getGenerateChildrenMs()) + " ms generating, " + format(getHeuristicMs()) + " ms heuristic, "
+				+ format(getOpenListMs()) + " ms open list of " + format(getTimeMs()) + " ms; "
+				+ (allocatedBytes < 0 ? "allocation unknown." : getBytesPerExpansion() + " bytes per expansion.");
+	}
+}
@@ -0,0 +1,58 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * The cheapest goal found so far by any of the searches of a portfolio. Every search offers the goals it finds and
+ * reads the cost back to prune: a state whose g plus unweighted heuristic reaches the cost can't lead to a cheaper
+ * plan, and a search whose open list holds nothing below it is done.
+ */
+public class SharedIncumbent {
+
+	private volatile double cost = Double.POSITIVE_INFINITY;
+	private GameState goal;
+	private String source;
+
+	/**
+	 * Makes a goal the incumbent if it is cheaper than the current one.
+	 * @param goal
+	 * @param source The settings of the search that found it
+	 * @return True if the goal became the incumbent.
+	 */
+	public synchronized boolean offer(GameState goal, String source) {
+
+		if (goal.getGCost() >= cost) {
+			return false;
+		}
+		this.goal = goal;
+		this.source = source;
+		this.cost = goal.getGCost();
+
+		return true;
+	}
+
+	/**
+	 * Returns the cost of the incumbent, or infinity if there is none yet.
+	 * @return
+	 */
+	public double getCost() {
+
+		return cost;
+	}
+
+	/**
+	 * Returns the incumbent goal state, or null.
+	 * @return
+	 */
+	public synchronized GameState getGoal() {
+
+		return goal;
+	}
+
+	/**
+	 * Returns the settings of the search that found the incumbent, or null.
+	 * @return
+	 */
+	public synchronized String getSource() {
+
+		return source;
+	}
+}
@@ -0,0 +1,50 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * Zobrist-style keys for the 64-bit state fingerprint kept by GameState. The fingerprint of a state is the XOR of
+ * one key per state feature (every peasant, every remaining resource, the gold, wood and food totals, and the
+ * townhall and gold times of a temporal search), so an action that changes a single feature updates the fingerprint
+ * by XOR-ing out the old key and XOR-ing in the new one.
+ *
+ * Rather than keeping a random table per feature, each key is produced by a 64-bit mixing function of the feature
+ * kind, the feature's id and its value, which gives the same independence without having to size a table for every
+ * possible coordinate and amount up front.
+ */
+public final class Zobrist {
+
+	public static final int PEASANT = 1;
+	public static final int RESOURCE = 2;
+	public static final int GOLD = 3;
+	public static final int WOOD = 4;
+	public static final int FOOD = 5;
+	public static final int DEPLETED = 6;
+	public static final int TOWNHALL_FREE = 7;
+	public static final int GOLD_READY = 8;
+
+	private Zobrist() {}
+
+	/**
+	 * Returns the key of a single state feature.
+	 * @param feature One of the feature kinds above
+	 * @param id The resource id, 0 for peasants and the totals
+	 * @param value The value of the feature
+	 * @return
+	 */
+	public static long key(int feature, int id, long value) {
+
+		return mix(mix(((long) feature << 32) ^ (id & 0xffffffffL)) ^ value);
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator; spreads every input bit over the whole output.
+	 * @param z
+	 * @return
+	 */
+	private static long mix(long z) {
+
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+		return z ^ (z >>> 31);
+	}
+}
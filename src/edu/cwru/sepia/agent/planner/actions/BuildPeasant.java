@@ -9,6 +9,8 @@ import edu.cwru.sepia.environment.model.state.Template.TemplateView;
 import edu.cwru.sepia.environment.model.state.Unit.UnitView;
 import edu.cwru.sepia.util.Direction;
 
+import java.util.List;
+
 public class BuildPeasant implements StripsAction {
 	
 	private int townhallId;
@@ -42,6 +44,28 @@ public class BuildPeasant implements StripsAction {
 		return this.townhallId;
 	}
 	
+	/**
+	 * Returns the same build at another townhall, for the peasant the plan gives the same ID
+	 */
+	@Override
+	public StripsAction copyWithUnitId(int unitId) {
+		
+		BuildPeasant copy = new BuildPeasant(unitId);
+		copy.peasantId = this.peasantId;
+		copy.peasantTemplateId = this.peasantTemplateId;
+		
+		return copy;
+	}
+	
+	/**
+	 * Gets the unit ID the plan gives the peasant to be built
+	 * @return
+	 */
+	public int getPeasantId() {
+		
+		return this.peasantId;
+	}
+	
 	/**
 	 * Gets the template ID of the peasant to be built
 	 * @return
@@ -52,11 +76,12 @@ public class BuildPeasant implements StripsAction {
 	}
 	
 	/**
-	 * Determines if the action can be executed in the state
+	 * Determines if the action can be executed in the state: there must be gold, food and a free cell next to the
+	 * townhall for the peasant to appear on.
 	 */
 	@Override
 	public boolean preconditionsMet(GameState state) {
-		return state.getGold() >= 400 && state.stateView.getSupplyCap(townhallId) > 0;
+		return state.getGold() >= 400 && state.getFood() > 0 && spawnCell(state) != null;
 	}
 	
 	/**
@@ -65,17 +90,35 @@ public class BuildPeasant implements StripsAction {
 	@Override
 	public GameState apply(GameState state) {
 		
-		TemplateView peasantTemplate = state.stateView.getTemplate(state.getPlayernum(), "Peasant");
+		TemplateView peasantTemplate = state.getStateView().getTemplate(state.getPlayernum(), "Peasant");
 		peasantTemplateId = peasantTemplate.getID();
-		Peasant peasant = new Peasant(state.getLargestPeasantId() + 1, new Position(state.townhall.getXPosition() - 1, state.townhall.getYPosition()));
-		this.peasantId = peasant.getID();
-		state.peasants.put(peasant.getID(), peasant);
+		this.peasantId = state.getLargestPeasantId() + 1;
+		state.addPeasant(peasantId, spawnCell(state));
 		state.removeGold(400);
 		state.reduceFood(1);
+		state.occupyTownhall(peasantId);
 		
 		return state;
 	}
 	
+	/**
+	 * Returns the cell the new peasant appears on: the one west of the townhall if it is free, otherwise the first
+	 * free cell next to the townhall.
+	 * @param state
+	 * @return The cell, or null if every cell next to the townhall is taken
+	 */
+	private static Position spawnCell(GameState state) {
+		
+		Position townhall = state.getProblem().getTownhallPosition();
+		List<Position> free = townhall.getValidAdjacentPositions(state);
+		Position west = new Position(townhall.x - 1, townhall.y);
+		
+		if (free.contains(west)) {
+			return west;
+		}
+		return free.isEmpty() ? null : free.get(0);
+	}
+	
 	/**
 	 * Returns the result of the action in a readable form
 	 */
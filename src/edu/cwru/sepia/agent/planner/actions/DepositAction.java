@@ -26,6 +26,18 @@ public class DepositAction implements StripsAction {
 		this.resourceType = getEnum(resourceType);
 	}
 	
+	/**
+	 * Copies a deposit for another peasant
+	 * @param action
+	 * @param peasantId
+	 */
+	private DepositAction(DepositAction action, int peasantId) {
+		
+		this.peasantId = peasantId;
+		this.townhallDirection = action.townhallDirection;
+		this.resourceType = action.resourceType;
+	}
+	
 	/**
 	 * Determines the resource type from the string passed to the constructor
 	 * @param value
@@ -49,6 +61,15 @@ public class DepositAction implements StripsAction {
 		return this.townhallDirection;			
 	}
 	
+	/**
+	 * Returns the type of the resource being deposited
+	 * @return
+	 */
+	public ResourceType getResourceType() {
+		
+		return this.resourceType;
+	}
+	
 	/**
 	 * Sets the unit ID to be associated with this action
 	 */
@@ -67,13 +88,26 @@ public class DepositAction implements StripsAction {
 		return this.peasantId;
 	}
 	
+	/**
+	 * Returns the same deposit for another peasant
+	 */
+	@Override
+	public StripsAction copyWithUnitId(int unitId) {
+		
+		return new DepositAction(this, unitId);
+	}
+	
 	/**
 	 * Determines if this action can be performed in the given state
 	 */
 	@Override
 	public boolean preconditionsMet(GameState state) {
-		Position peasantPos = state.peasants.get(peasantId).getPosition();
-		Position townhallPos = state.getUnitPosition(state.townhall);
+		
+		if (!state.hasPeasant(peasantId) || state.getPeasantCargoAmount(peasantId) <= 0 || state.getPeasantCargoType(peasantId) != resourceType) {
+			return false;
+		}
+		Position peasantPos = state.getPeasantPosition(peasantId);
+		Position townhallPos = state.getUnitPosition(state.getTownhall());
 		
 		return peasantPos.isAdjacent(townhallPos);
 	}
@@ -94,9 +128,14 @@ public class DepositAction implements StripsAction {
 			break;
 	
 		}
-		state.peasants.get(peasantId).removeCargo();
+		state.unloadPeasant(peasantId);
 		state.cost = 2;
 		state.gCost += state.cost;
+		state.occupyPeasant(peasantId, state.cost);
+		
+		if (resourceType == ResourceType.GOLD) {
+			state.markGoldDeposit(peasantId);
+		}
 		
 		return state;
 	}
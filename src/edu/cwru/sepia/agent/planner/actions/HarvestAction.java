@@ -31,6 +31,19 @@ public class HarvestAction implements StripsAction {
 		this.resourceType = getEnum(resourceType);
 	}
 	
+	/**
+	 * Copies a harvest for another peasant
+	 * @param action
+	 * @param peasantId
+	 */
+	private HarvestAction(HarvestAction action, int peasantId) {
+		
+		this.peasantId = peasantId;
+		this.resourceDirection = action.resourceDirection;
+		this.resourceId = action.resourceId;
+		this.resourceType = action.resourceType;
+	}
+	
 	/**
 	 * Returns the resource type to be harvested based off of the string passed to the constructor
 	 * @param value
@@ -54,6 +67,24 @@ public class HarvestAction implements StripsAction {
 		return this.resourceDirection;			
 	}
 	
+	/**
+	 * Returns the type of the resource to be harvested
+	 * @return
+	 */
+	public ResourceType getResourceType() {
+		
+		return this.resourceType;
+	}
+	
+	/**
+	 * Returns the ID of the resource to be harvested
+	 * @return
+	 */
+	public int getResourceId() {
+		
+		return this.resourceId;
+	}
+	
 	/**
 	 * Sets the ID of the unit associated with this action
 	 */
@@ -72,56 +103,30 @@ public class HarvestAction implements StripsAction {
 		return this.peasantId;
 	}
 	
+	/**
+	 * Returns the same harvest for another peasant
+	 */
+	@Override
+	public StripsAction copyWithUnitId(int unitId) {
+		
+		return new HarvestAction(this, unitId);
+	}
+	
 	/**
 	 * Determines if this action can be performed in the given state
 	 */
 	@Override
 	public boolean preconditionsMet(GameState state) {
 		
-		switch (resourceType) {
-		case GOLD:
-			
-			Position peasantPos = state.peasants.get(peasantId).getPosition();
-			
-			for (ResourceNode resource : state.resources) {
-				
-				String resourceType = resource.getResourceType().name().toLowerCase();
-				
-				if (resourceType.equals("wood")) {
-					return false;
-				}
-				else {
-					Position resourcePos = state.getResourcePosition(resource);
-				
-					if (peasantPos.isAdjacent(resourcePos)) {
-						return true;
-					}
-				}
-			}
-			break;
-			
-		case WOOD:
-			peasantPos = state.peasants.get(peasantId).getPosition();
-			
-			for (ResourceNode resource : state.resources) {
-				
-				String resourceType = resource.getResourceType().name().toLowerCase();
-				
-				if (resourceType.equals("gold")) {
-					return false;
-				}
-				else {
-					Position resourcePos = state.getResourcePosition(resource);
-				
-					if (peasantPos.isAdjacent(resourcePos)) {
-						return true;
-					}
-				}
-			}
-			break;
+		int resource = state.getProblem().getResourceIndex(resourceId);
+		
+		if (resource < 0 || state.getResourceAmount(resource) <= 0 || !state.hasPeasant(peasantId) || state.getPeasantCargoAmount(peasantId) > 0) {
+			return false;
 		}
+		Position peasantPos = state.getPeasantPosition(peasantId);
+		Position resourcePos = state.getProblem().getResourcePosition(resource);
 		
-		return false;
+		return state.getProblem().getResourceType(resource) == resourceType && peasantPos.isAdjacent(resourcePos);
 	}
 	
 	/**
@@ -130,27 +135,10 @@ public class HarvestAction implements StripsAction {
 	@Override
 	public GameState apply(GameState state) {
 		
-		switch (resourceType) {
-		
-		case GOLD:
-			state.peasants.get(peasantId).setCargoType(ResourceType.GOLD);
-			break;
-		case WOOD:
-			state.peasants.get(peasantId).setCargoType(ResourceType.WOOD);
-			break;
-		}
-		ResourceNode newResource = null;
-		for (ResourceNode resource : state.resources) {
-			if (resource.getID() == resourceId) {
-				newResource = resource;
-			}
-		}
-		state.peasants.get(peasantId).addCargo(newResource.reduceAmountRemaining(100));
-		if (newResource.getAmountRemaining() <= 0) {
-			state.resources.remove(newResource);
-		}
+		state.loadPeasant(peasantId, resourceType, state.harvestResource(resourceId, 100));
 		state.cost = 2;
 		state.gCost += state.cost;	
+		state.occupyPeasant(peasantId, state.cost);
 		
 		return state;
 	}
@@ -0,0 +1,216 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.Position;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A macro action for one full trip of an empty handed peasant: move next to a resource, harvest it, move next to the
+ * townhall and deposit. The search treats the whole round trip as a single step with the summed cost of its parts,
+ * which makes plans about four times shallower. The PEAgent expands it back into the primitive actions returned by
+ * getPrimitiveActions when it is executed.
+ */
+public class HarvestCycle implements StripsAction {
+
+	private int peasantId;
+	private int resourceId;
+	private ResourceType resourceType;
+	private Position origin;
+	private Position resourcePosition;
+	private Position resourceStand;
+	private Position townhallPosition;
+	private Position townhallStand;
+
+	/**
+	 * Creates a harvest cycle for a peasant and a resource
+	 * @param peasantId
+	 * @param origin Where the peasant stands when the cycle starts
+	 * @param resourceId
+	 * @param resourceType
+	 * @param resourcePosition
+	 * @param resourceStand The cell next to the resource the peasant harvests from
+	 * @param townhallPosition
+	 * @param townhallStand The cell next to the townhall the peasant deposits from
+	 */
+	public HarvestCycle(int peasantId, Position origin, int resourceId, ResourceType resourceType, Position resourcePosition, Position resourceStand, Position townhallPosition, Position townhallStand) {
+
+		this.peasantId = peasantId;
+		this.origin = origin;
+		this.resourceId = resourceId;
+		this.resourceType = resourceType;
+		this.resourcePosition = resourcePosition;
+		this.resourceStand = resourceStand;
+		this.townhallPosition = townhallPosition;
+		this.townhallStand = townhallStand;
+	}
+
+	/**
+	 * Returns the primitive actions this cycle stands for, in execution order. The first move is left out when the
+	 * peasant already stands where it harvests from.
+	 * @return
+	 */
+	public List<StripsAction> getPrimitiveActions() {
+
+		List<StripsAction> actions = new ArrayList<StripsAction>();
+
+		if (!origin.equals(resourceStand)) {
+			actions.add(new MoveAction(peasantId, resourceStand));
+		}
+		String nodeType = resourceType == ResourceType.WOOD ? "TREE" : "GOLD_MINE";
+		actions.add(new HarvestAction(peasantId, resourceStand.getDirection(resourcePosition), nodeType, resourceId));
+		actions.add(new MoveAction(peasantId, townhallStand));
+		actions.add(new DepositAction(peasantId, townhallStand.getDirection(townhallPosition), resourceType.name()));
+
+		return actions;
+	}
+
+	/**
+	 * Returns the ID of the resource harvested in this cycle
+	 * @return
+	 */
+	public int getResourceId() {
+
+		return this.resourceId;
+	}
+
+	/**
+	 * Returns the type of the resource harvested in this cycle
+	 * @return
+	 */
+	public ResourceType getResourceType() {
+
+		return this.resourceType;
+	}
+
+	/**
+	 * Returns where the peasant stands when the cycle starts
+	 * @return
+	 */
+	public Position getOrigin() {
+
+		return this.origin;
+	}
+
+	/**
+	 * Returns the position of the resource harvested in this cycle
+	 * @return
+	 */
+	public Position getResourcePosition() {
+
+		return this.resourcePosition;
+	}
+
+	/**
+	 * Returns the cell next to the resource the peasant harvests from
+	 * @return
+	 */
+	public Position getResourceStand() {
+
+		return this.resourceStand;
+	}
+
+	/**
+	 * Returns the position of the townhall
+	 * @return
+	 */
+	public Position getTownhallPosition() {
+
+		return this.townhallPosition;
+	}
+
+	/**
+	 * Returns the cell next to the townhall the peasant deposits from
+	 * @return
+	 */
+	public Position getTownhallStand() {
+
+		return this.townhallStand;
+	}
+
+	/**
+	 * Sets the ID of the peasant making the trip
+	 */
+	@Override
+	public void setUnitId(int id) {
+		this.peasantId = id;
+	}
+
+	/**
+	 * Returns the ID of the peasant making the trip
+	 */
+	@Override
+	public int getUnitId() {
+
+		return this.peasantId;
+	}
+
+	/**
+	 * Returns the same trip for another peasant
+	 */
+	@Override
+	public StripsAction copyWithUnitId(int unitId) {
+
+		return new HarvestCycle(unitId, this.origin, this.resourceId, this.resourceType, this.resourcePosition,
+				this.resourceStand, this.townhallPosition, this.townhallStand);
+	}
+
+	/**
+	 * The peasant must be empty handed and at the cycle's origin, the resource must not be used up, and both stand
+	 * cells must be free (or be the cell the peasant leaves).
+	 */
+	@Override
+	public boolean preconditionsMet(GameState state) {
+
+		if (!state.hasPeasant(peasantId) || state.getPeasantCargoAmount(peasantId) > 0 || !state.getPeasantPosition(peasantId).equals(origin)) {
+			return false;
+		}
+		int resource = state.getProblem().getResourceIndex(resourceId);
+
+		if (resource < 0 || state.getResourceAmount(resource) <= 0) {
+			return false;
+		}
+
+		return isFreeFor(state, resourceStand) && isFreeFor(state, townhallStand);
+	}
+
+	/**
+	 * Determines if a cell is free apart from the peasant making the trip.
+	 * @param state
+	 * @param position
+	 * @return
+	 */
+	private boolean isFreeFor(GameState state, Position position) {
+
+		return position.equals(origin) || !state.isOccupied(position.x, position.y);
+	}
+
+	/**
+	 * Applies the primitive actions one after another. The cost of the cycle is the sum of their costs.
+	 */
+	@Override
+	public GameState apply(GameState state) {
+
+		double cycleCost = 0.0;
+
+		for (StripsAction action : getPrimitiveActions()) {
+			action.apply(state);
+			cycleCost += state.cost;
+		}
+		state.cost = cycleCost;
+
+		return state;
+	}
+
+	/**
+	 * Returns a readable format of this action for the plan.txt file
+	 */
+	@Override
+	public String toString() {
+
+		return "ACTION: HARVEST CYCLE( Peasant " + peasantId + " | " + resourceType.toString() + " " + resourceId + " from " + resourceStand + " | deposit from " + townhallStand + " )" + "\n";
+	}
+
+}
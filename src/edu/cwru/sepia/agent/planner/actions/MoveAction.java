@@ -48,6 +48,15 @@ public class MoveAction implements StripsAction {
 		return this.peasantId;
 	}
 	
+	/**
+	 * Returns the same move for another peasant
+	 */
+	@Override
+	public StripsAction copyWithUnitId(int unitId) {
+		
+		return new MoveAction(unitId, this.destination);
+	}
+	
 	/**
 	 * Returns the destination of this move action
 	 * @return
@@ -67,12 +76,18 @@ public class MoveAction implements StripsAction {
 	}
 	
 	/**
-	 * We check for this in the game state before we create the child so this method is unused. Sorry about that.
+	 * The peasant must exist and the destination must be on the map and not taken by anything but a peasant, which
+	 * may still move out of the way. The search picks free destinations itself, so this is for checking a plan
+	 * against the state it is executed in.
 	 */
 	@Override
 	public boolean preconditionsMet(GameState state) {
 		
-		return false;
+		if (!state.hasPeasant(peasantId) || destination.x < 0 || destination.y < 0 || destination.x >= state.getXExtent() || destination.y >= state.getYExtent()) {
+			return false;
+		}
+		
+		return !state.isOccupied(destination.x, destination.y) || state.isPeasantAt(destination);
 	}
 	
 	/**
@@ -80,13 +95,11 @@ public class MoveAction implements StripsAction {
 	 */
 	@Override
 	public GameState apply(GameState state) {
-		this.origin = state.peasants.get(peasantId).getPosition();
-		
-		if (state.peasants != null) {
-			state.peasants.get(peasantId).setPosition(destination);
-		}
-		state.cost = getOrigin().euclideanDistance(destination);
+		this.origin = state.getPeasantPosition(peasantId);
+		state.movePeasant(peasantId, destination);
+		state.cost = state.getWalkingDistance(getOrigin(), destination);
 		state.gCost += state.cost;
+		state.occupyPeasant(peasantId, state.cost);
 		
 		return state;
 	}
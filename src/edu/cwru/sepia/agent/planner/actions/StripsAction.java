@@ -49,4 +49,11 @@ public interface StripsAction {
      * @param id
      */
     public void setUnitId(int id);
+    
+    /**
+     * Returns a copy of this action whose getUnitId is the given ID, leaving this action as it is
+     * @param unitId
+     * @return
+     */
+    public StripsAction copyWithUnitId(int unitId);
 }